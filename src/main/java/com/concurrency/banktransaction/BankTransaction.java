@@ -1,6 +1,21 @@
 package com.concurrency.banktransaction;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -11,10 +26,83 @@ class BankAccount {
     public BankAccount(String no) {
         this.accountNo = no;
     }
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+}
+
+class Transfer {
+    private final BankAccount source;
+    private final BankAccount destination;
+    private final long amount;
+
+    public Transfer(BankAccount source, BankAccount destination, long amount) {
+        this.source = source;
+        this.destination = destination;
+        this.amount = amount;
+    }
+
+    public BankAccount getSource() {
+        return source;
+    }
+
+    public BankAccount getDestination() {
+        return destination;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    /*
+        Netting: a batch of N transfers touching K distinct accounts is
+        collapsed into K balance deltas. A -> B 10 followed by B -> A 4 is
+        just A -= 6, B += 6. Accounts whose deltas cancel out completely are
+        dropped, so they don't even need to be locked.
+
+        The result is sorted by account number, which gives every caller the
+        same deterministic iteration (and locking) order.
+     */
+    public static Map<BankAccount, Long> netDeltas(List<Transfer> transfers) {
+        // Sum up in a hash map first (String caches its hash), then sort only
+        // the distinct accounts.
+        Map<String, long[]> sums = new HashMap<>();
+        Map<String, BankAccount> accounts = new HashMap<>();
+        for (Transfer transfer : transfers) {
+            accumulate(sums, accounts, transfer.getSource(), -transfer.getAmount());
+            accumulate(sums, accounts, transfer.getDestination(), transfer.getAmount());
+        }
+
+        Map<BankAccount, Long> deltas = new TreeMap<>(Comparator.comparing(BankAccount::getAccountNo));
+        for (Map.Entry<String, long[]> sum : sums.entrySet()) {
+            if (sum.getValue()[0] != 0) {
+                deltas.put(accounts.get(sum.getKey()), sum.getValue()[0]);
+            }
+        }
+        return deltas;
+    }
+
+    private static void accumulate(Map<String, long[]> sums, Map<String, BankAccount> accounts,
+                                   BankAccount account, long amount) {
+        long[] sum = sums.get(account.getAccountNo());
+        if (sum == null) {
+            sum = new long[1];
+            sums.put(account.getAccountNo(), sum);
+            accounts.put(account.getAccountNo(), account);
+        }
+        sum[0] += amount;
+    }
 }
 
 interface BankTransactionService {
     void moveMoney(BankAccount source, BankAccount destination, long amount);
+
+    /**
+     * Applies all the transfers as one atomic unit: either every balance
+     * change of the batch is visible or none of them.
+     */
+    void moveMoneyBatch(List<Transfer> transfers);
 }
 
 class SomeBankTransactionService implements BankTransactionService {
@@ -124,6 +212,24 @@ class SomeBankTransactionService implements BankTransactionService {
         }
     }
 
+    @Override
+    public void moveMoneyBatch(List<Transfer> transfers) {
+        Map<BankAccount, Long> deltas = Transfer.netDeltas(transfers);
+
+        // One lock acquisition for the whole batch instead of three per
+        // transfer. The nested getBalance()/updateBalance() calls below only
+        // bump the hold count of the lock we already own.
+        this.lock.lock();
+
+        try {
+            for (Map.Entry<BankAccount, Long> delta : deltas.entrySet()) {
+                updateBalance(delta.getKey(), getBalance(delta.getKey()) + delta.getValue());
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
     public long getBalance(BankAccount account) {
         this.lock.lock();
 
@@ -153,7 +259,306 @@ class SomeBankTransactionService implements BankTransactionService {
 
 public class BankTransaction {
 
-    public static void main(String[] args) {
+    private static BankAccount[] createAccounts(int count) {
+        BankAccount[] accounts = new BankAccount[count];
+        for (int i = 0; i < count; i++) {
+            accounts[i] = new BankAccount(String.valueOf(1_000_000 + i));
+        }
+        return accounts;
+    }
+
+    private static double measureThroughput(BankTransactionService service, BankAccount[] accounts,
+                                            int threads, int transfersPerThread) {
+        long start = System.nanoTime();
+
+        try (ExecutorService executorService = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                executorService.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < transfersPerThread; i++) {
+                        BankAccount source = accounts[random.nextInt(accounts.length)];
+                        BankAccount destination = accounts[random.nextInt(accounts.length)];
+                        service.moveMoney(source, destination, 1 + random.nextInt(100));
+                    }
+                });
+            }
+
+            executorService.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        return (threads * (double) transfersPerThread) / seconds;
+    }
+
+    private static void test1() {
+        // Throughput of the global lock vs lock striping, same workload.
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        int transfersPerThread = 200_000;
+        BankAccount[] accounts = createAccounts(10_000);
+
+        StripedBankTransactionService striped = new StripedBankTransactionService();
+        for (BankAccount account : accounts) {
+            striped.openAccount(account, 10_000);
+        }
+
+        // Warm up both services before measuring.
+        measureThroughput(new SomeBankTransactionService(), accounts, threads, transfersPerThread / 10);
+        measureThroughput(striped, accounts, threads, transfersPerThread / 10);
+
+        double globalLock = measureThroughput(new SomeBankTransactionService(), accounts, threads, transfersPerThread);
+        double stripedLock = measureThroughput(striped, accounts, threads, transfersPerThread);
+
+        System.out.printf("threads = %d, accounts = %d%n", threads, accounts.length);
+        System.out.printf("SomeBankTransactionService    : %,.0f transfers/sec%n", globalLock);
+        System.out.printf("StripedBankTransactionService : %,.0f transfers/sec (%.1fx)%n",
+                stripedLock, stripedLock / globalLock);
+    }
+
+    private static long[] measureLatencies(BankTransactionService service, BankAccount[] accounts,
+                                           int threads, int transfersPerThread) {
+        long[] latencies = new long[threads * transfersPerThread];
+
+        try (ExecutorService executorService = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                int offset = t * transfersPerThread;
+                executorService.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < transfersPerThread; i++) {
+                        // Half of the transfers hit the first (hot) account.
+                        BankAccount source = random.nextBoolean()
+                                ? accounts[0] : accounts[random.nextInt(accounts.length)];
+                        BankAccount destination = accounts[random.nextInt(accounts.length)];
+
+                        long start = System.nanoTime();
+                        service.moveMoney(source, destination, 1 + random.nextInt(100));
+                        latencies[offset + i] = System.nanoTime() - start;
+                    }
+                });
+            }
+
+            executorService.shutdown();
+        }
 
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void printLatencies(String name, long[] sorted) {
+        System.out.printf("%-34s p50 = %,d ns, p99 = %,d ns, p99.9 = %,d ns, max = %,d ns%n", name,
+                sorted[(int) (sorted.length * 0.50)],
+                sorted[(int) (sorted.length * 0.99)],
+                sorted[(int) (sorted.length * 0.999)],
+                sorted[sorted.length - 1]);
+    }
+
+    private static void test2() {
+        // Tail latency with 64 transfer threads while a reader keeps polling
+        // the hot account.
+        int threads = 64;
+        int transfersPerThread = 20_000;
+        BankAccount[] accounts = createAccounts(1_000);
+
+        StripedBankTransactionService striped = new StripedBankTransactionService();
+        OptimisticBankTransactionService optimistic = new OptimisticBankTransactionService();
+        for (BankAccount account : accounts) {
+            striped.openAccount(account, 10_000);
+            optimistic.openAccount(account, 10_000);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread hotReader = new Thread(() -> {
+            long sink = 0;
+            while (running.get()) {
+                sink += striped.getBalance(accounts[0]) + optimistic.getBalance(accounts[0]);
+            }
+            System.out.println("Hot reader done, checksum = " + sink);
+        });
+        hotReader.start();
+
+        measureLatencies(striped, accounts, threads, transfersPerThread / 10);
+        measureLatencies(optimistic, accounts, threads, transfersPerThread / 10);
+
+        printLatencies("StripedBankTransactionService", measureLatencies(striped, accounts, threads, transfersPerThread));
+        printLatencies("OptimisticBankTransactionService", measureLatencies(optimistic, accounts, threads, transfersPerThread));
+        System.out.println("OptimisticBankTransactionService total after all transfers = "
+                + Arrays.stream(optimistic.getBalances(accounts)).sum() + " (expected " + 10_000L * accounts.length + ")");
+
+        running.set(false);
+        try {
+            hotReader.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long settleOneByOne(BankTransactionService service, List<Transfer> settlement) {
+        long start = System.nanoTime();
+        for (Transfer transfer : settlement) {
+            service.moveMoney(transfer.getSource(), transfer.getDestination(), transfer.getAmount());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long settleInBatches(BankTransactionService service, List<Transfer> settlement, int batchSize) {
+        long start = System.nanoTime();
+        for (int i = 0; i < settlement.size(); i += batchSize) {
+            service.moveMoneyBatch(settlement.subList(i, Math.min(i + batchSize, settlement.size())));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void test3() {
+        // Settlement job: many small transfers between a limited set of
+        // accounts, one by one vs in netted batches.
+        int transfers = 1_000_000;
+        int batchSize = 10_000;
+        BankAccount[] accounts = createAccounts(500);
+
+        List<Transfer> settlement = new ArrayList<>(transfers);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < transfers; i++) {
+            settlement.add(new Transfer(accounts[random.nextInt(accounts.length)],
+                    accounts[random.nextInt(accounts.length)], 1 + random.nextInt(100)));
+        }
+
+        StripedBankTransactionService oneByOne = new StripedBankTransactionService();
+        StripedBankTransactionService batched = new StripedBankTransactionService();
+        for (BankAccount account : accounts) {
+            oneByOne.openAccount(account, 10_000);
+            batched.openAccount(account, 10_000);
+        }
+
+        long globalOneByOne = settleOneByOne(new SomeBankTransactionService(), settlement);
+        long globalBatched = settleInBatches(new SomeBankTransactionService(), settlement, batchSize);
+        long stripedOneByOne = settleOneByOne(oneByOne, settlement);
+        long stripedBatched = settleInBatches(batched, settlement, batchSize);
+
+        boolean sameBalances = true;
+        for (BankAccount account : accounts) {
+            sameBalances &= oneByOne.getBalance(account) == batched.getBalance(account);
+        }
+
+        System.out.printf("transfers = %,d, accounts = %d, batch size = %,d%n", transfers, accounts.length, batchSize);
+        System.out.printf("SomeBankTransactionService    moveMoney : %,d ms, moveMoneyBatch : %,d ms%n",
+                globalOneByOne / 1_000_000, globalBatched / 1_000_000);
+        System.out.printf("StripedBankTransactionService moveMoney : %,d ms, moveMoneyBatch : %,d ms%n",
+                stripedOneByOne / 1_000_000, stripedBatched / 1_000_000);
+        System.out.println("Same final balances = " + sameBalances);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void test4() {
+        // Footprint and per-transfer allocation: ConcurrentHashMap<String, Long>
+        // vs the off-heap ledger.
+        int accountCount = 2_000_000;
+        int transfers = 5_000_000;
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long heapBefore = usedHeap();
+        StripedBankTransactionService striped = new StripedBankTransactionService();
+        for (int i = 1; i <= accountCount; i++) {
+            striped.openAccount(new BankAccount(String.valueOf(i)), 10_000);
+        }
+        long stripedHeap = usedHeap() - heapBefore;
+        BankAccount source = new BankAccount("1");
+        BankAccount destination = new BankAccount("2");
+
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < transfers; i++) {
+            striped.moveMoney(source, destination, 1);
+        }
+        long stripedAllocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        striped = null;
+
+        heapBefore = usedHeap();
+        OffHeapLedgerBankTransactionService ledger = new OffHeapLedgerBankTransactionService(accountCount);
+        for (int i = 1; i <= accountCount; i++) {
+            ledger.openAccount(i, 10_000);
+        }
+        long ledgerHeap = usedHeap() - heapBefore;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < transfers; i++) {
+            ledger.moveMoney(1 + random.nextInt(accountCount), 1 + random.nextInt(accountCount), 1);
+        }
+        long ledgerNanos = System.nanoTime() - start;
+        long ledgerAllocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.printf("accounts = %,d%n", accountCount);
+        System.out.printf("StripedBankTransactionService       : heap = %,d bytes (%d bytes/account), "
+                        + "allocated %.1f bytes/transfer%n",
+                stripedHeap, stripedHeap / accountCount, stripedAllocated / (double) transfers);
+        System.out.printf("OffHeapLedgerBankTransactionService : heap = %,d bytes, off-heap = %,d bytes "
+                        + "(%d bytes/account), allocated %.1f bytes/transfer, %,.0f transfers/sec%n",
+                ledgerHeap, ledger.footprintBytes(), ledger.footprintBytes() / ledger.accounts(),
+                ledgerAllocated / (double) transfers, transfers / (ledgerNanos / 1_000_000_000.0));
+    }
+
+    private static OffHeapLedgerBankTransactionService runJournaled(boolean groupCommit, Path journalFile,
+                                                                    BankAccount[] accounts, int threads,
+                                                                    int transfersPerThread) throws IOException {
+        OffHeapLedgerBankTransactionService ledger = new OffHeapLedgerBankTransactionService(accounts.length);
+
+        try (JournaledBankTransactionService service =
+                     new JournaledBankTransactionService(ledger, journalFile, groupCommit)) {
+            double throughput = measureThroughput(service, accounts, threads, transfersPerThread);
+            long transfers = (long) threads * transfersPerThread;
+
+            System.out.printf("%-14s: %,.0f transfers/sec, %,d forces, %.3f forces/transfer%n",
+                    groupCommit ? "group commit" : "per record", throughput,
+                    service.forceCount(), service.forceCount() / (double) transfers);
+        }
+        return ledger;
+    }
+
+    private static void test5() {
+        // Durable transfers: one force() per record vs group commit, then
+        // recovery from the journal.
+        int threads = 64;
+        int transfersPerThread = 250;
+        BankAccount[] accounts = createAccounts(1_000);
+
+        try {
+            Path directory = Files.createTempDirectory("bank-journal");
+            Path perRecordJournal = directory.resolve("per-record.journal");
+            Path groupCommitJournal = directory.resolve("group-commit.journal");
+
+            runJournaled(false, perRecordJournal, accounts, threads, transfersPerThread);
+            OffHeapLedgerBankTransactionService beforeRestart =
+                    runJournaled(true, groupCommitJournal, accounts, threads, transfersPerThread);
+
+            // "Restart": replay the journal into an empty ledger.
+            OffHeapLedgerBankTransactionService afterRestart = new OffHeapLedgerBankTransactionService(accounts.length);
+            new JournaledBankTransactionService(afterRestart, groupCommitJournal).close();
+
+            boolean sameBalances = true;
+            for (BankAccount account : accounts) {
+                sameBalances &= beforeRestart.getBalance(account) == afterRestart.getBalance(account);
+            }
+            System.out.printf("Replayed %,d bytes of journal, same balances after restart = %b%n",
+                    Files.size(groupCommitJournal), sameBalances);
+
+            Files.delete(perRecordJournal);
+            Files.delete(groupCommitJournal);
+            Files.delete(directory);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static void main(String[] args) {
+        test1();
+        test2();
+        test3();
+        test4();
+        test5();
     }
 }
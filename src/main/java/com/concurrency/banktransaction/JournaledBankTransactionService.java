@@ -0,0 +1,81 @@
+package com.concurrency.banktransaction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+class JournaledBankTransactionService implements BankTransactionService, AutoCloseable {
+    /*
+        Makes any `BankTransactionService` durable by putting a
+        `TransferJournal` in front of it.
+
+        The order matters:
+            1. append the transfer to the journal,
+            2. wait until the journal says it's on disk,
+            3. only then apply it to the in-memory balances.
+        So a balance that anybody could have seen is never lost by a crash.
+        On construction the journal is replayed into the (empty) delegate,
+        which brings every balance back to where it was.
+
+        Transfers only add and subtract, so the order in which concurrent
+        transfers reach the delegate doesn't change the final balances, and
+        replaying them in journal order gives the same result.
+     */
+    private final BankTransactionService delegate;
+    private final TransferJournal journal;
+
+    public JournaledBankTransactionService(BankTransactionService delegate, Path journalFile) throws IOException {
+        this(delegate, journalFile, true);
+    }
+
+    public JournaledBankTransactionService(BankTransactionService delegate, Path journalFile,
+                                           boolean groupCommit) throws IOException {
+        this.delegate = delegate;
+        this.journal = new TransferJournal(journalFile, groupCommit, (source, destination, amount) ->
+                delegate.moveMoney(new BankAccount(String.valueOf(source)),
+                        new BankAccount(String.valueOf(destination)), amount));
+    }
+
+    @Override
+    public void moveMoney(BankAccount source, BankAccount destination, long amount) {
+        long sequence = this.journal.append(accountNumber(source), accountNumber(destination), amount);
+        this.journal.awaitDurable(sequence);
+
+        this.delegate.moveMoney(source, destination, amount);
+    }
+
+    @Override
+    public void moveMoneyBatch(List<Transfer> transfers) {
+        if (transfers.isEmpty()) {
+            return;
+        }
+
+        long[] sources = new long[transfers.size()];
+        long[] destinations = new long[transfers.size()];
+        long[] amounts = new long[transfers.size()];
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            sources[i] = accountNumber(transfer.getSource());
+            destinations[i] = accountNumber(transfer.getDestination());
+            amounts[i] = transfer.getAmount();
+        }
+
+        long sequence = this.journal.appendBatch(sources, destinations, amounts);
+        this.journal.awaitDurable(sequence);
+
+        this.delegate.moveMoneyBatch(transfers);
+    }
+
+    public long forceCount() {
+        return this.journal.forceCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.journal.close();
+    }
+
+    private static long accountNumber(BankAccount account) {
+        return Long.parseLong(account.getAccountNo());
+    }
+}
@@ -0,0 +1,164 @@
+package com.concurrency.banktransaction;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+class LockStripes {
+    /*
+        Lock striping: instead of one lock per account (unbounded number of
+        lock objects) or one lock for everything (no parallelism at all),
+        we keep a fixed pool of locks and map every key onto one of them
+        through its hash.
+
+        Two accounts that land on different stripes can be worked on by two
+        threads at the same time. Two accounts that land on the same stripe
+        simply share a lock - that costs some parallelism, never correctness.
+
+        The number of stripes is rounded up to a power of two so that the
+        stripe index is a cheap `hash & mask` instead of a modulo.
+
+        Deadlock avoidance:
+            If thread T1 moves money A -> B and thread T2 moves money B -> A,
+            and both lock "source first", T1 holds A waiting for B and T2
+            holds B waiting for A. Forever.
+
+            The classic fix is a global lock order: every thread acquires the
+            stripes in ascending stripe index. Then a cycle in the wait-for
+            graph is impossible, since nobody can hold a higher stripe while
+            waiting for a lower one.
+     */
+    private final Lock[] locks;
+    private final int mask;
+
+    public LockStripes(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+
+        this.locks = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public int size() {
+        return this.locks.length;
+    }
+
+    public int stripeFor(Object key) {
+        // Spread the higher bits downwards, `String.hashCode()` of similar
+        // account numbers differs mostly in the low bits.
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & this.mask;
+    }
+
+    /**
+     * Same stripe as {@code stripeFor(Long.valueOf(key))}, without boxing.
+     */
+    public int stripeFor(long key) {
+        int h = Long.hashCode(key);
+        h ^= (h >>> 16);
+        return h & this.mask;
+    }
+
+    public Lock lockAt(int stripe) {
+        return this.locks[stripe];
+    }
+
+    /**
+     * Locks both stripes in ascending order. If both keys map to the same
+     * stripe, it is locked only once.
+     */
+    public void lockBoth(int stripeA, int stripeB) {
+        int lower = Math.min(stripeA, stripeB);
+        int higher = Math.max(stripeA, stripeB);
+
+        this.locks[lower].lock();
+        if (higher != lower) {
+            try {
+                this.locks[higher].lock();
+            } catch (RuntimeException ex) {
+                this.locks[lower].unlock();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct stripes of the given keys in ascending order,
+     * which is the order {@link #lockAll(int[])} must take them in.
+     */
+    public int[] stripesFor(Iterable<?> keys) {
+        boolean[] used = new boolean[this.locks.length];
+        int count = 0;
+        for (Object key : keys) {
+            int stripe = stripeFor(key);
+            if (!used[stripe]) {
+                used[stripe] = true;
+                count++;
+            }
+        }
+        return ascending(used, count);
+    }
+
+    public int[] stripesFor(long[] keys) {
+        boolean[] used = new boolean[this.locks.length];
+        int count = 0;
+        for (long key : keys) {
+            int stripe = stripeFor(key);
+            if (!used[stripe]) {
+                used[stripe] = true;
+                count++;
+            }
+        }
+        return ascending(used, count);
+    }
+
+    private static int[] ascending(boolean[] used, int count) {
+        int[] stripes = new int[count];
+        for (int i = 0, j = 0; i < used.length; i++) {
+            if (used[i]) {
+                stripes[j++] = i;
+            }
+        }
+        return stripes;
+    }
+
+    public void lockAll(int[] ascendingStripes) {
+        int locked = 0;
+        try {
+            for (int stripe : ascendingStripes) {
+                this.locks[stripe].lock();
+                locked++;
+            }
+        } catch (RuntimeException ex) {
+            for (int i = locked - 1; i >= 0; i--) {
+                this.locks[ascendingStripes[i]].unlock();
+            }
+            throw ex;
+        }
+    }
+
+    public void unlockAll(int[] ascendingStripes) {
+        for (int i = ascendingStripes.length - 1; i >= 0; i--) {
+            this.locks[ascendingStripes[i]].unlock();
+        }
+    }
+
+    public void unlockBoth(int stripeA, int stripeB) {
+        int lower = Math.min(stripeA, stripeB);
+        int higher = Math.max(stripeA, stripeB);
+
+        if (higher != lower) {
+            this.locks[higher].unlock();
+        }
+        this.locks[lower].unlock();
+    }
+}
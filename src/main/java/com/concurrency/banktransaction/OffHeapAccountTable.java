@@ -0,0 +1,188 @@
+package com.concurrency.banktransaction;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+class OffHeapAccountTable {
+    /*
+        An open-addressing (linear probing) hash table from a `long` account
+        number to a `long` balance, stored outside of the Java heap.
+
+        Layout: every slot is 16 bytes, [key: 8 bytes][balance: 8 bytes].
+        Key 0 marks an empty slot, so 0 can't be used as an account number.
+        There are no entry objects, no boxed Longs and no per-account Strings,
+        so a table of tens of millions of accounts is a handful of large
+        direct buffers that the garbage collector never scans.
+
+        The slots are spread over fixed-size pages of direct `ByteBuffer`s,
+        because a single buffer is indexed by `int` and can't exceed 2 GB.
+
+        Access goes through a `VarHandle` view of the buffers, which gives us
+        volatile reads/writes and compareAndSet on raw off-heap memory:
+            - Lookups never lock. They read keys with volatile semantics.
+            - Inserts claim an empty slot with compareAndSet(0, key). Two
+              threads racing for the same slot: one wins, the loser re-reads
+              the key and either finds its own key (somebody inserted the same
+              account) or keeps probing.
+            - Entries are never removed, so a key never moves once inserted
+              and a slot index stays valid forever.
+
+        Balance updates are plain volatile writes. Making a transfer atomic is
+        the caller's job (see `OffHeapLedgerBankTransactionService`).
+
+        Note: `MemorySegment` is still a preview API in the Java version the
+        pom targets, so this uses direct buffers instead. The memory is
+        released when the table becomes unreachable and its buffers are
+        collected.
+     */
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int SLOT_BYTES = 16;
+    private static final int PAGE_SHIFT = 22; // 4M slots = 64 MB per page
+    private static final int PAGE_SLOTS = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SLOTS - 1;
+    private static final double MAX_LOAD_FACTOR = 0.8;
+
+    /**
+     * Returned by {@link #findSlot(long)} for an account not in the table.
+     */
+    public static final long MISSING = -1;
+
+    private final ByteBuffer[] pages;
+    private final long capacity;
+    private final long maxSize;
+    private final AtomicLong size;
+
+    public OffHeapAccountTable(long expectedAccounts) {
+        if (expectedAccounts <= 0) {
+            throw new IllegalArgumentException("expectedAccounts must be positive: " + expectedAccounts);
+        }
+
+        // The capacity is not rounded up to a power of two: at 16 bytes per
+        // slot that would waste up to half of the memory. The home slot is
+        // picked with a multiply-high instead of `hash & mask`.
+        long capacity = (long) Math.ceil(expectedAccounts / MAX_LOAD_FACTOR);
+
+        int pageCount = (int) ((capacity + PAGE_SLOTS - 1) >>> PAGE_SHIFT);
+        this.pages = new ByteBuffer[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            int slotsInPage = (int) Math.min(PAGE_SLOTS, capacity - ((long) i << PAGE_SHIFT));
+            // allocateDirect() zeroes the memory, i.e. every slot starts empty.
+            this.pages[i] = ByteBuffer.allocateDirect(slotsInPage * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        }
+
+        this.capacity = capacity;
+        this.maxSize = (long) (capacity * MAX_LOAD_FACTOR);
+        this.size = new AtomicLong();
+    }
+
+    /**
+     * Returns the slot of the given account, inserting it with a zero
+     * balance if it's not in the table yet.
+     *
+     * @throws IllegalStateException if the table is full
+     */
+    public long slotOf(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("0 is reserved for empty slots");
+        }
+
+        long slot = Math.unsignedMultiplyHigh(mix(key), this.capacity);
+        for (long probes = 0; probes < this.capacity; probes++) {
+            ByteBuffer page = this.pages[(int) (slot >>> PAGE_SHIFT)];
+            int offset = (int) (slot & PAGE_MASK) * SLOT_BYTES;
+
+            long current = (long) LONGS.getVolatile(page, offset);
+            if (current == key) {
+                return slot;
+            }
+            if (current == 0) {
+                if (this.size.get() >= this.maxSize) {
+                    throw new IllegalStateException("Account table is full, capacity = " + this.capacity);
+                }
+                if (LONGS.compareAndSet(page, offset, 0L, key)) {
+                    this.size.incrementAndGet();
+                    return slot;
+                }
+                // Another thread claimed this slot. It could have inserted the
+                // very same key, so check the slot again before moving on.
+                if ((long) LONGS.getVolatile(page, offset) == key) {
+                    return slot;
+                }
+            }
+            if (++slot == this.capacity) {
+                slot = 0;
+            }
+        }
+
+        throw new IllegalStateException("Account table is full, capacity = " + this.capacity);
+    }
+
+    /**
+     * Returns the slot of the given account, or {@link #MISSING} if it's not
+     * in the table. Never inserts, so looking up unknown accounts can't fill
+     * the table.
+     */
+    public long findSlot(long key) {
+        if (key == 0) {
+            return MISSING;
+        }
+
+        long slot = Math.unsignedMultiplyHigh(mix(key), this.capacity);
+        for (long probes = 0; probes < this.capacity; probes++) {
+            long current = (long) LONGS.getVolatile(this.pages[(int) (slot >>> PAGE_SHIFT)],
+                    (int) (slot & PAGE_MASK) * SLOT_BYTES);
+            if (current == key) {
+                return slot;
+            }
+            if (current == 0) {
+                // Keys are never removed, so the probe sequence of a key that
+                // is in the table has no empty slot before it.
+                return MISSING;
+            }
+            if (++slot == this.capacity) {
+                slot = 0;
+            }
+        }
+        return MISSING;
+    }
+
+    public long get(long slot) {
+        return (long) LONGS.getVolatile(this.pages[(int) (slot >>> PAGE_SHIFT)], balanceOffset(slot));
+    }
+
+    public void set(long slot, long balance) {
+        LONGS.setVolatile(this.pages[(int) (slot >>> PAGE_SHIFT)], balanceOffset(slot), balance);
+    }
+
+    public long size() {
+        return this.size.get();
+    }
+
+    public long capacity() {
+        return this.capacity;
+    }
+
+    public long footprintBytes() {
+        return this.capacity * SLOT_BYTES;
+    }
+
+    private static int balanceOffset(long slot) {
+        return (int) (slot & PAGE_MASK) * SLOT_BYTES + Long.BYTES;
+    }
+
+    private static long mix(long key) {
+        // Finalizer of MurmurHash3. Sequential account numbers would otherwise
+        // fill consecutive slots and make linear probing degrade.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,126 @@
+package com.concurrency.banktransaction;
+
+import java.util.List;
+import java.util.Map;
+
+class OffHeapLedgerBankTransactionService implements BankTransactionService {
+    /*
+        Same locking scheme as `StripedBankTransactionService`, but the
+        balances live in an `OffHeapAccountTable` instead of a
+        `ConcurrentHashMap<String, Long>`.
+
+        For tens of millions of accounts the map costs a String, a boxed Long
+        and a map node per account, and every transfer boxes two new Longs.
+        Here an account is 16 bytes of off-heap memory, and the primitive
+        `moveMoney(long, long, long)` path allocates nothing at all:
+            - the account numbers are plain longs,
+            - the stripe is computed from the long directly,
+            - the balances are read and written in place.
+
+        Account numbers must be numeric (and not 0). The `BankAccount` based
+        methods parse `accountNo`, which doesn't allocate either.
+     */
+    private static final int DEFAULT_STRIPES = 1024;
+
+    private final OffHeapAccountTable table;
+    private final LockStripes stripes;
+
+    public OffHeapLedgerBankTransactionService(long expectedAccounts) {
+        this(expectedAccounts, DEFAULT_STRIPES);
+    }
+
+    public OffHeapLedgerBankTransactionService(long expectedAccounts, int stripes) {
+        this.table = new OffHeapAccountTable(expectedAccounts);
+        this.stripes = new LockStripes(stripes);
+    }
+
+    public void openAccount(long accountNo, long initialBalance) {
+        updateBalance(accountNo, initialBalance);
+    }
+
+    @Override
+    public void moveMoney(BankAccount source, BankAccount destination, long amount) {
+        moveMoney(accountNumber(source), accountNumber(destination), amount);
+    }
+
+    public void moveMoney(long source, long destination, long amount) {
+        // Assuming the source account has enough balance
+        long sourceSlot = this.table.slotOf(source);
+        long destinationSlot = this.table.slotOf(destination);
+        int sourceStripe = this.stripes.stripeFor(source);
+        int destinationStripe = this.stripes.stripeFor(destination);
+
+        this.stripes.lockBoth(sourceStripe, destinationStripe);
+
+        try {
+            this.table.set(sourceSlot, this.table.get(sourceSlot) - amount);
+            this.table.set(destinationSlot, this.table.get(destinationSlot) + amount);
+        } finally {
+            this.stripes.unlockBoth(sourceStripe, destinationStripe);
+        }
+    }
+
+    @Override
+    public void moveMoneyBatch(List<Transfer> transfers) {
+        Map<BankAccount, Long> deltas = Transfer.netDeltas(transfers);
+
+        long[] accountNos = new long[deltas.size()];
+        long[] slots = new long[deltas.size()];
+        long[] amounts = new long[deltas.size()];
+        int i = 0;
+        for (Map.Entry<BankAccount, Long> delta : deltas.entrySet()) {
+            accountNos[i] = accountNumber(delta.getKey());
+            slots[i] = this.table.slotOf(accountNos[i]);
+            amounts[i] = delta.getValue();
+            i++;
+        }
+
+        int[] stripesToLock = this.stripes.stripesFor(accountNos);
+        this.stripes.lockAll(stripesToLock);
+
+        try {
+            for (int j = 0; j < slots.length; j++) {
+                this.table.set(slots[j], this.table.get(slots[j]) + amounts[j]);
+            }
+        } finally {
+            this.stripes.unlockAll(stripesToLock);
+        }
+    }
+
+    public long getBalance(BankAccount account) {
+        return getBalance(accountNumber(account));
+    }
+
+    public long getBalance(long accountNo) {
+        // A single aligned 8-byte volatile read, no lock needed to see a
+        // balance that some transfer fully wrote. An unknown account reads
+        // as 0, like in the other services, without taking up a slot.
+        long slot = this.table.findSlot(accountNo);
+        return slot == OffHeapAccountTable.MISSING ? 0 : this.table.get(slot);
+    }
+
+    public void updateBalance(long accountNo, long newBalance) {
+        long slot = this.table.slotOf(accountNo);
+        int stripe = this.stripes.stripeFor(accountNo);
+
+        this.stripes.lockAt(stripe).lock();
+
+        try {
+            this.table.set(slot, newBalance);
+        } finally {
+            this.stripes.lockAt(stripe).unlock();
+        }
+    }
+
+    public long accounts() {
+        return this.table.size();
+    }
+
+    public long footprintBytes() {
+        return this.table.footprintBytes();
+    }
+
+    private static long accountNumber(BankAccount account) {
+        return Long.parseLong(account.getAccountNo());
+    }
+}
@@ -0,0 +1,285 @@
+package com.concurrency.banktransaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+
+class OptimisticBankTransactionService implements BankTransactionService {
+    /*
+        Every account owns one `AtomicReference` that points to an immutable
+        (balance, version) cell. Reading a balance is one volatile load: it
+        never blocks and never makes a writer wait, no matter how hot the
+        account is.
+
+        A transfer commits optimistically:
+            1. read the current cells of both accounts, holding nothing,
+            2. compute both new cells off to the side,
+            3. try to take the write stamps of both accounts' stripes (one
+               `StampedLock` per stripe, in ascending stripe order as in
+               `LockStripes`) with `tryWriteLock()`, which never blocks,
+            4. validate: if both versions are still the ones read in step 1,
+               install both new cells; if another commit got to either
+               account in between, install nothing,
+            5. release the stamps, and if a stamp was taken by somebody else
+               or the validation failed, spin for a moment (yield after a
+               while) and retry from 1.
+        Nobody ever parks on a stripe: a thread that finds one taken gives
+        up everything it holds and starts over, so there's no deadlock
+        either. The stamps are held for the version check and the stores
+        only, never while reading or computing. Debit and credit are
+        installed under the same stamps, so no other commit can interleave
+        with them, and `getBalances()` validates its optimistic read against
+        these stamps: it sees every transfer either completely or not at all.
+
+        Every commit installs a brand-new `Cell` with the version bumped, so
+        an unchanged version means nobody committed in between (no ABA).
+     */
+    private static final int STRIPES = 1024;
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private static final class Cell {
+        final long balance;
+        final long version;
+
+        Cell(long balance, long version) {
+            this.balance = balance;
+            this.version = version;
+        }
+    }
+
+    private final ConcurrentMap<String, AtomicReference<Cell>> cells;
+    private final StampedLock[] stripes;
+
+    public OptimisticBankTransactionService() {
+        this.cells = new ConcurrentHashMap<>();
+        this.stripes = new StampedLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new StampedLock();
+        }
+    }
+
+    public void openAccount(BankAccount account, long initialBalance) {
+        updateBalance(account, initialBalance);
+    }
+
+    @Override
+    public void moveMoney(BankAccount source, BankAccount destination, long amount) {
+        // Assuming the source account has enough balance
+        if (source.getAccountNo().equals(destination.getAccountNo())) {
+            return;
+        }
+
+        AtomicReference<Cell> from = cellOf(source);
+        AtomicReference<Cell> to = cellOf(destination);
+        int lower = Math.min(stripeFor(source), stripeFor(destination));
+        int higher = Math.max(stripeFor(source), stripeFor(destination));
+
+        int attempts = 0;
+        while (true) {
+            Cell fromSeen = from.get();
+            Cell toSeen = to.get();
+            Cell fromUpdated = new Cell(fromSeen.balance - amount, fromSeen.version + 1);
+            Cell toUpdated = new Cell(toSeen.balance + amount, toSeen.version + 1);
+
+            long lowerStamp = this.stripes[lower].tryWriteLock();
+            long higherStamp = lowerStamp != 0 && higher != lower ? this.stripes[higher].tryWriteLock() : 0;
+            boolean locked = lowerStamp != 0 && (higher == lower || higherStamp != 0);
+
+            try {
+                if (locked && from.get().version == fromSeen.version && to.get().version == toSeen.version) {
+                    from.set(fromUpdated);
+                    to.set(toUpdated);
+                    return;
+                }
+            } finally {
+                if (higherStamp != 0) {
+                    this.stripes[higher].unlockWrite(higherStamp);
+                }
+                if (lowerStamp != 0) {
+                    this.stripes[lower].unlockWrite(lowerStamp);
+                }
+            }
+            // Lost the race against another committer, back off for a moment
+            // to let the winner's cache line settle, then retry.
+            backOff(++attempts);
+        }
+    }
+
+    /**
+     * Nets the batch, then commits all distinct accounts like
+     * {@link #moveMoney}: read and compute without a lock, validate every
+     * version and install every new cell under the write stamps of all
+     * involved stripes. Other threads see either none or all of the batch.
+     */
+    @Override
+    public void moveMoneyBatch(List<Transfer> transfers) {
+        Map<BankAccount, Long> deltas = Transfer.netDeltas(transfers);
+
+        List<AtomicReference<Cell>> targets = new ArrayList<>(deltas.size());
+        long[] amounts = new long[deltas.size()];
+        for (Map.Entry<BankAccount, Long> delta : deltas.entrySet()) {
+            amounts[targets.size()] = delta.getValue();
+            targets.add(cellOf(delta.getKey()));
+        }
+        int[] stripesToLock = stripesFor(deltas.keySet().toArray(new BankAccount[0]));
+
+        Cell[] seen = new Cell[targets.size()];
+        Cell[] updated = new Cell[targets.size()];
+        int attempts = 0;
+        while (true) {
+            for (int i = 0; i < seen.length; i++) {
+                seen[i] = targets.get(i).get();
+                updated[i] = new Cell(seen[i].balance + amounts[i], seen[i].version + 1);
+            }
+
+            long[] stamps = tryWriteLockAll(stripesToLock);
+            if (stamps != null) {
+                try {
+                    if (unchanged(targets, seen)) {
+                        for (int i = 0; i < updated.length; i++) {
+                            targets.get(i).set(updated[i]);
+                        }
+                        return;
+                    }
+                } finally {
+                    unlockWriteAll(stripesToLock, stamps, stamps.length);
+                }
+            }
+            backOff(++attempts);
+        }
+    }
+
+    public long getBalance(BankAccount account) {
+        // Only writes create cells; an unknown account reads as 0.
+        AtomicReference<Cell> cell = this.cells.get(account.getAccountNo());
+        return cell == null ? 0 : cell.get().balance;
+    }
+
+    /**
+     * The balances of all given accounts as of the same instant: no transfer
+     * is seen half done. The read is optimistic and repeated as long as a
+     * commit to one of the stripes overlapped it; it never takes a stamp.
+     */
+    public long[] getBalances(BankAccount... accounts) {
+        int[] stripesToRead = stripesFor(accounts);
+        long[] balances = new long[accounts.length];
+        long[] stamps = new long[stripesToRead.length];
+
+        int attempts = 0;
+        while (true) {
+            for (int i = 0; i < stripesToRead.length; i++) {
+                stamps[i] = this.stripes[stripesToRead[i]].tryOptimisticRead();
+            }
+            for (int i = 0; i < accounts.length; i++) {
+                balances[i] = getBalance(accounts[i]);
+            }
+            if (validateAll(stripesToRead, stamps)) {
+                return balances;
+            }
+            backOff(++attempts);
+        }
+    }
+
+    public long getVersion(BankAccount account) {
+        AtomicReference<Cell> cell = this.cells.get(account.getAccountNo());
+        return cell == null ? 0 : cell.get().version;
+    }
+
+    public void updateBalance(BankAccount account, long newBalance) {
+        AtomicReference<Cell> cell = cellOf(account);
+        StampedLock stripe = this.stripes[stripeFor(account)];
+        long stamp;
+        int attempts = 0;
+        while ((stamp = stripe.tryWriteLock()) == 0) {
+            backOff(++attempts);
+        }
+
+        try {
+            cell.set(new Cell(newBalance, cell.get().version + 1));
+        } finally {
+            stripe.unlockWrite(stamp);
+        }
+    }
+
+    private static void backOff(int attempts) {
+        // A stripe held by a descheduled thread stays taken until it runs
+        // again; after a few spins hand it the CPU instead of burning ours.
+        if (attempts < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    private static boolean unchanged(List<AtomicReference<Cell>> targets, Cell[] seen) {
+        for (int i = 0; i < seen.length; i++) {
+            if (targets.get(i).get().version != seen[i].version) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean validateAll(int[] ascendingStripes, long[] stamps) {
+        for (int i = 0; i < ascendingStripes.length; i++) {
+            if (stamps[i] == 0 || !this.stripes[ascendingStripes[i]].validate(stamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the write stamps of all stripes without blocking, or none of
+     * them: returns null (holding nothing) if any stripe is taken.
+     */
+    private long[] tryWriteLockAll(int[] ascendingStripes) {
+        long[] stamps = new long[ascendingStripes.length];
+        for (int i = 0; i < ascendingStripes.length; i++) {
+            stamps[i] = this.stripes[ascendingStripes[i]].tryWriteLock();
+            if (stamps[i] == 0) {
+                unlockWriteAll(ascendingStripes, stamps, i);
+                return null;
+            }
+        }
+        return stamps;
+    }
+
+    private void unlockWriteAll(int[] ascendingStripes, long[] stamps, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            this.stripes[ascendingStripes[i]].unlockWrite(stamps[i]);
+        }
+    }
+
+    private static int stripeFor(BankAccount account) {
+        // Same spreading as `LockStripes.stripeFor()`.
+        int h = account.getAccountNo().hashCode();
+        h ^= (h >>> 16);
+        return h & (STRIPES - 1);
+    }
+
+    private static int[] stripesFor(BankAccount[] accounts) {
+        int[] stripes = new int[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            stripes[i] = stripeFor(accounts[i]);
+        }
+        return Arrays.stream(stripes).sorted().distinct().toArray();
+    }
+
+    /**
+     * The account's cell, created with a zero balance if it has none yet.
+     * For the write path only, reads must not grow the map.
+     */
+    private AtomicReference<Cell> cellOf(BankAccount account) {
+        AtomicReference<Cell> cell = this.cells.get(account.getAccountNo());
+        if (cell != null) {
+            return cell;
+        }
+        return this.cells.computeIfAbsent(account.getAccountNo(), key -> new AtomicReference<>(new Cell(0, 0)));
+    }
+}
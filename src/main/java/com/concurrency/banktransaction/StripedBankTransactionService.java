@@ -0,0 +1,114 @@
+package com.concurrency.banktransaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+class StripedBankTransactionService implements BankTransactionService {
+    /*
+        `SomeBankTransactionService` guards every account with the same
+        `ReentrantLock`, so two transfers between four unrelated accounts
+        still run one after another.
+
+        Here only the stripes of the two accounts involved are locked (see
+        `LockStripes` for how the global lock order prevents deadlocks).
+        Transfers touching different stripes run in parallel.
+
+        The balances live in a `ConcurrentHashMap` because threads holding
+        different stripes insert into the map at the same time. The stripe
+        lock is what makes the read-modify-write of a balance atomic; the
+        map only has to stay structurally consistent.
+     */
+    private static final int DEFAULT_STRIPES = 1024;
+
+    private final LockStripes stripes;
+    private final Map<String, Long> balances;
+
+    public StripedBankTransactionService() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public StripedBankTransactionService(int stripes) {
+        this.stripes = new LockStripes(stripes);
+        this.balances = new ConcurrentHashMap<>();
+    }
+
+    public void openAccount(BankAccount account, long initialBalance) {
+        updateBalance(account, initialBalance);
+    }
+
+    @Override
+    public void moveMoney(BankAccount source, BankAccount destination, long amount) {
+        // Assuming the source account has enough balance
+        int sourceStripe = this.stripes.stripeFor(source.getAccountNo());
+        int destinationStripe = this.stripes.stripeFor(destination.getAccountNo());
+
+        this.stripes.lockBoth(sourceStripe, destinationStripe);
+
+        try {
+            // We already hold both stripes, so read and write the map directly
+            // instead of going through getBalance()/updateBalance() and
+            // re-acquiring the same locks.
+            long newBalanceSource = readBalance(source) - amount;
+            this.balances.put(source.getAccountNo(), newBalanceSource);
+
+            long newBalanceDest = readBalance(destination) + amount;
+            this.balances.put(destination.getAccountNo(), newBalanceDest);
+        } finally {
+            this.stripes.unlockBoth(sourceStripe, destinationStripe);
+        }
+    }
+
+    @Override
+    public void moveMoneyBatch(List<Transfer> transfers) {
+        Map<BankAccount, Long> deltas = Transfer.netDeltas(transfers);
+
+        List<String> accountNos = new ArrayList<>(deltas.size());
+        for (BankAccount account : deltas.keySet()) {
+            accountNos.add(account.getAccountNo());
+        }
+
+        // Every affected stripe is locked exactly once, in ascending order,
+        // before any balance changes. Other threads see either none or all of
+        // the batch, and lock acquisitions scale with the number of distinct
+        // accounts rather than with the number of transfers.
+        int[] stripesToLock = this.stripes.stripesFor(accountNos);
+        this.stripes.lockAll(stripesToLock);
+
+        try {
+            for (Map.Entry<BankAccount, Long> delta : deltas.entrySet()) {
+                this.balances.put(delta.getKey().getAccountNo(), readBalance(delta.getKey()) + delta.getValue());
+            }
+        } finally {
+            this.stripes.unlockAll(stripesToLock);
+        }
+    }
+
+    public long getBalance(BankAccount account) {
+        Lock lock = this.stripes.lockAt(this.stripes.stripeFor(account.getAccountNo()));
+        lock.lock();
+
+        try {
+            return readBalance(account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void updateBalance(BankAccount account, long newBalance) {
+        Lock lock = this.stripes.lockAt(this.stripes.stripeFor(account.getAccountNo()));
+        lock.lock();
+
+        try {
+            this.balances.put(account.getAccountNo(), newBalance);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long readBalance(BankAccount account) {
+        return this.balances.getOrDefault(account.getAccountNo(), 0L);
+    }
+}
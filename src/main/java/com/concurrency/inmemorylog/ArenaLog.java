@@ -0,0 +1,209 @@
+package com.concurrency.inmemorylog;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+class ArenaLog implements LogStore {
+    /*
+        A log of raw bytes that produces no garbage per entry.
+
+        With `writeLog(String)` every entry is a String object plus its
+        byte[] plus a reference in a list: the more we log, the more the GC
+        has to trace and copy. Here the caller hands in a `ByteBuffer` it
+        reuses for every entry, and the bytes are copied into big direct
+        buffers (pages) that the GC never looks into. Reading fills a
+        caller-owned `LogRecordView` that points into the page, so nothing is
+        copied or allocated on that side either.
+
+        Pages:
+            A page is a direct buffer of `pageBytes` plus an int[] with the
+            start offset of each of its entries (entry k spans offsets[k] to
+            offsets[k + 1]). Entries are appended until either runs out; then
+            the next page is started. Pages are numbered, page n lives in
+            slot n % maxPages of a ring.
+
+        Pool:
+            Pages are allocated the first time their slot is used and reused
+            from then on. Once the ring is full, starting a new page recycles
+            the oldest one, dropping its entries (they read as missing). So
+            the log holds the latest maxPages pages, and in steady state an
+            append allocates nothing at all.
+
+        Concurrency: appends are serialized by a lock, reads take none. The
+        writer bumps the volatile `published` count after an entry is
+        complete, and readers never look past it.
+
+        Recycled pages vs. views:
+            A reader may still look at a page while the writer recycles it.
+            That's detected like with a seqlock: the writer bumps the page's
+            number before it overwrites anything, the reader reads the data
+            and then checks that the number is still the one it started
+            with (`LogRecordView.isValid()`). If not, what it read may be
+            garbage and the entry is gone anyway.
+
+        The request asked for `MemorySegment` too. It's still a preview API
+        on the Java version we build with, so `ByteBuffer` it is, the same as
+        for `OffHeapAccountTable`.
+     */
+    private static final int ENTRIES_PER_PAGE = 16 * 1024;
+
+    static final class Page {
+        final ByteBuffer data;
+        final int[] offsets;
+        volatile long number;
+        volatile long baseIndex;
+        int entries;
+
+        Page(int pageBytes) {
+            this.data = ByteBuffer.allocateDirect(pageBytes);
+            this.offsets = new int[ENTRIES_PER_PAGE + 1];
+        }
+    }
+
+    private final Page[] ring;
+    private final int pageBytes;
+    private final Lock lock;
+
+    private volatile Page active;
+    private volatile long oldestPage;
+    private volatile long published;
+
+    public ArenaLog(int pageBytes, int maxPages) {
+        if (pageBytes <= 0 || maxPages < 2) {
+            throw new IllegalArgumentException("Expected pageBytes > 0 and maxPages >= 2");
+        }
+
+        this.ring = new Page[maxPages];
+        this.pageBytes = pageBytes;
+        this.lock = new ReentrantLock();
+        this.active = new Page(pageBytes);
+        this.ring[0] = this.active;
+    }
+
+    /**
+     * Appends the remaining bytes of {@code payload} and returns the index
+     * of the entry. The payload's position is left untouched, so the
+     * caller can reuse the same buffer for the next entry.
+     */
+    public long writeLog(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length > this.pageBytes) {
+            throw new IllegalArgumentException("Entry of " + length
+                    + " bytes doesn't fit a page of " + this.pageBytes + " bytes");
+        }
+
+        this.lock.lock();
+
+        try {
+            Page page = this.active;
+            int start = page.offsets[page.entries];
+            if (page.entries == ENTRIES_PER_PAGE || start + length > this.pageBytes) {
+                page = nextPage();
+                start = 0;
+            }
+
+            page.data.put(start, payload, payload.position(), length);
+            page.offsets[page.entries + 1] = start + length;
+            page.entries++;
+
+            long index = this.published;
+            this.published = index + 1;
+            return index;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public long writeLog(String message) {
+        return writeLog(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Points {@code view} at the entry and returns true, or returns false if
+     * there's no such entry (yet, or any more). Copies and allocates
+     * nothing. Check {@link LogRecordView#isValid()} after reading from the
+     * view.
+     */
+    public boolean readLogRecord(long index, LogRecordView view) {
+        if (index < 0 || index >= this.published) {
+            return false;
+        }
+
+        // Binary search for the last page starting at or before the index.
+        long low = this.oldestPage;
+        long high = this.active.number;
+        while (low < high) {
+            long middle = (low + high + 1) >>> 1;
+            Page page = this.ring[(int) (middle % this.ring.length)];
+            if (page.number != middle) {
+                // Recycled under our feet: everything up to it is gone.
+                low = middle;
+                continue;
+            }
+            if (page.baseIndex <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        Page page = this.ring[(int) (low % this.ring.length)];
+        if (page == null || page.number != low || page.baseIndex > index) {
+            return false;
+        }
+        int entry = (int) (index - page.baseIndex);
+        if (entry >= page.entries) {
+            return false;
+        }
+        int start = page.offsets[entry];
+        int end = page.offsets[entry + 1];
+        if (start < 0 || end < start || end > this.pageBytes) {
+            // Torn read of a page that is being recycled.
+            return false;
+        }
+        view.wrap(page, low, start, end - start);
+        return view.isValid();
+    }
+
+    @Override
+    public String readLogLine(long index) {
+        LogRecordView view = new LogRecordView();
+        if (!readLogRecord(index, view)) {
+            return "";
+        }
+        byte[] bytes = new byte[view.length()];
+        view.copyTo(bytes);
+        return view.isValid() ? new String(bytes, StandardCharsets.UTF_8) : "";
+    }
+
+    public long size() {
+        return this.published;
+    }
+
+    private Page nextPage() {
+        // Called with the lock held.
+        long number = this.active.number + 1;
+        int slot = (int) (number % this.ring.length);
+        Page page = this.ring[slot];
+        if (page == null) {
+            page = new Page(this.pageBytes);
+            this.ring[slot] = page;
+        } else {
+            this.oldestPage = number - this.ring.length + 1;
+        }
+
+        // Number first, so that readers of the old entries see the page
+        // change before any byte of it is overwritten.
+        page.number = number;
+        VarHandle.storeStoreFence();
+        page.baseIndex = this.published;
+        page.entries = 0;
+        page.offsets[0] = 0;
+        this.active = page;
+        return page;
+    }
+}
@@ -0,0 +1,81 @@
+package com.concurrency.inmemorylog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+class BlockCache {
+    /*
+        LRU cache of decoded `CompressedSegment` blocks, so that hot entries
+        aren't inflated over and over.
+
+        `LinkedHashMap` in access order keeps the entries sorted from least
+        to most recently used, and `removeEldestEntry` drops the least
+        recently used one when the cache is full. A lookup reorders the map,
+        so even a `get` has to hold the lock. Inflating a missing block
+        happens outside the lock; two readers missing the same block at the
+        same time both inflate it, and the second `put` just wins.
+     */
+    private final Map<Long, String[]> blocks;
+    private final Lock lock;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    public BlockCache(int capacity) {
+        this.blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String[]> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.lock = new ReentrantLock();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    public String[] get(CompressedSegment segment, int block) {
+        long key = segment.number * segment.blockCount() + block;
+        this.lock.lock();
+
+        try {
+            String[] entries = this.blocks.get(key);
+            if (entries != null) {
+                this.hits.increment();
+                return entries;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.misses.increment();
+        String[] entries = segment.decode(block);
+        this.lock.lock();
+
+        try {
+            this.blocks.put(key, entries);
+        } finally {
+            this.lock.unlock();
+        }
+        return entries;
+    }
+
+    public void clear() {
+        this.lock.lock();
+
+        try {
+            this.blocks.clear();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+}
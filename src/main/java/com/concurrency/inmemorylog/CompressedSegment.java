@@ -0,0 +1,125 @@
+package com.concurrency.inmemorylog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+class CompressedSegment {
+    /*
+        A sealed `SegmentedLog` segment, deflated.
+
+        The entries are compressed in blocks of `BLOCK_ENTRIES`, not as a
+        whole segment: reading one entry only has to inflate its block
+        (~256 entries), not all 4096. Within a block the entries are
+        serialized as [length: 4][UTF-8 bytes], then deflated with the JDK's
+        `Deflater` (zlib). Log lines repeat a lot ("random message 4711"), so
+        a block shrinks to a fraction of the Strings it replaces, which cost
+        ~60 bytes each in object headers, lengths and references alone.
+
+        Immutable once built, so any number of readers can share it.
+     */
+    static final int BLOCK_ENTRIES = 256;
+
+    final long number;
+    private final byte[][] blocks;
+    private final int[] rawLengths;
+
+    private CompressedSegment(long number, byte[][] blocks, int[] rawLengths) {
+        this.number = number;
+        this.blocks = blocks;
+        this.rawLengths = rawLengths;
+    }
+
+    static CompressedSegment compress(long number, AtomicReferenceArray<String> segment) {
+        int blockCount = segment.length() / BLOCK_ENTRIES;
+        byte[][] blocks = new byte[blockCount][];
+        int[] rawLengths = new int[blockCount];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+
+        try {
+            for (int block = 0; block < blockCount; block++) {
+                raw.reset();
+                DataOutputStream out = new DataOutputStream(raw);
+                for (int i = block * BLOCK_ENTRIES; i < (block + 1) * BLOCK_ENTRIES; i++) {
+                    byte[] bytes = segment.get(i).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+
+                byte[] input = raw.toByteArray();
+                rawLengths[block] = input.length;
+                deflater.reset();
+                deflater.setInput(input);
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 4);
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+                blocks[block] = compressed.toByteArray();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            deflater.end();
+        }
+        return new CompressedSegment(number, blocks, rawLengths);
+    }
+
+    static int blockOf(int offset) {
+        return offset / BLOCK_ENTRIES;
+    }
+
+    int blockCount() {
+        return this.blocks.length;
+    }
+
+    /**
+     * Inflates one block back into its entries.
+     */
+    String[] decode(int block) {
+        byte[] raw = new byte[this.rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(this.blocks[block]);
+            int inflated = 0;
+            while (inflated < raw.length) {
+                int count = inflater.inflate(raw, inflated, raw.length - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    // Truncated block: nothing more will come out of it.
+                    throw new IllegalStateException("Corrupt compressed log block");
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt compressed log block", ex);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        String[] entries = new String[BLOCK_ENTRIES];
+        for (int i = 0; i < BLOCK_ENTRIES; i++) {
+            int length = in.getInt();
+            entries[i] = new String(raw, in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        return entries;
+    }
+
+    long compressedBytes() {
+        long bytes = 0;
+        for (byte[] block : this.blocks) {
+            bytes += block.length;
+        }
+        return bytes;
+    }
+}
@@ -1,18 +1,35 @@
 package com.concurrency.inmemorylog;
 
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 class Writer implements Runnable {
-    private InMemoryLogging logging;
+    private LogStore logging;
 
-    public Writer(InMemoryLogging logging) {
+    public Writer(LogStore logging) {
         this.logging = logging;
     }
 
@@ -33,17 +50,17 @@ class Writer implements Runnable {
 }
 
 class Reader implements Runnable {
-    private InMemoryLogging logging;
-    private int logIndex = -1;
+    private LogStore logging;
+    private long logIndex = -1;
 
-    public Reader(InMemoryLogging logging) {
+    public Reader(LogStore logging) {
         this.logging = logging;
     }
 
     @Override
     public void run() {
         while (true) {
-            int nextIndex = this.logIndex + 1;
+            long nextIndex = this.logIndex + 1;
             String message = this.logging.readLogLine(nextIndex);
             if (!message.isEmpty() && !message.isBlank()) {
                 this.logIndex = nextIndex;
@@ -60,7 +77,7 @@ class Reader implements Runnable {
     }
 }
 
-public class InMemoryLogging {
+public class InMemoryLogging implements LogStore {
     private List<String> log;
 
     /*
@@ -92,17 +109,20 @@ public class InMemoryLogging {
         this.log = new ArrayList<>();
     }
 
-    public void writeLog(String message) {
+    @Override
+    public long writeLog(String message) {
         this.lock.writeLock().lock();
 
         try {
             this.log.add(message);
+            return this.log.size() - 1;
         } finally {
             this.lock.writeLock().unlock();
         }
     }
 
-    public String readLogLine(int i) {
+    @Override
+    public String readLogLine(long i) {
         try {
             /*
                 tryLock() acquires the lock if it is free within the given waiting
@@ -132,7 +152,7 @@ public class InMemoryLogging {
             if (this.lock.readLock().tryLock(100, TimeUnit.MILLISECONDS)) {
                 try {
                     if (i < this.log.size()) {
-                        return this.log.get(i);
+                        return this.log.get((int) i);
                     }
                 } finally {
                     this.lock.readLock().unlock();
@@ -161,7 +181,479 @@ public class InMemoryLogging {
         }
     }
 
+    private static void measure(String name, LogStore logStore, int writers, int readers) {
+        int appendsPerWriter = 200_000;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        LongAdder reads = new LongAdder();
+        long start = System.nanoTime();
+        long writeNanos;
+
+        try (ExecutorService executorService = Executors.newFixedThreadPool(readers)) {
+            for (int r = 0; r < readers; r++) {
+                executorService.submit(() -> {
+                    // Tails the log like `Reader`, without the sleep.
+                    long next = 0;
+                    while (writing.get()) {
+                        if (!logStore.readLogLine(next).isEmpty()) {
+                            next++;
+                        }
+                        reads.increment();
+                    }
+                });
+            }
+
+            try (ExecutorService writerPool = Executors.newFixedThreadPool(writers)) {
+                for (int w = 0; w < writers; w++) {
+                    int writer = w;
+                    writerPool.submit(() -> {
+                        for (int i = 0; i < appendsPerWriter; i++) {
+                            logStore.writeLog("writer " + writer + " message " + i);
+                        }
+                    });
+                }
+
+                writerPool.shutdown();
+            }
+            writeNanos = System.nanoTime() - start;
+            writing.set(false);
+
+            executorService.shutdown();
+        }
+
+        double seconds = writeNanos / 1_000_000_000.0;
+        System.out.printf("%-16s writers = %d: %,12.0f appends/sec, %,12.0f reads/sec%n",
+                name, writers, writers * (double) appendsPerWriter / seconds, reads.sum() / seconds);
+    }
+
+    private static void test2() {
+        // Append and read throughput, RW lock vs lock-free segments, with two
+        // readers tailing the log while the writers append.
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int writers = 1; writers <= Math.max(4, cores * 2); writers *= 2) {
+            measure("InMemoryLogging", new InMemoryLogging(), writers, 2);
+            measure("SegmentedLog", new SegmentedLog(), writers, 2);
+        }
+    }
+
+    private static void measureTailLatency(String name, boolean polling) {
+        // The writer appends its clock every 100us; the reader computes how
+        // long each entry took to reach it.
+        int entries = 10_000;
+        SegmentedLog log = new SegmentedLog();
+        long[] latencies = new long[entries];
+
+        Thread reader = new Thread(() -> {
+            LogCursor cursor = new LogCursor(log, 0);
+            int received = 0;
+            try {
+                while (received < entries) {
+                    List<String> batch;
+                    if (polling) {
+                        batch = cursor.poll(256);
+                        if (batch.isEmpty()) {
+                            Thread.sleep(1);
+                        }
+                    } else {
+                        batch = cursor.take(256);
+                    }
+                    long now = System.nanoTime();
+                    for (String message : batch) {
+                        latencies[received++] = now - Long.parseLong(message);
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < entries; i++) {
+            log.writeLog(Long.toString(System.nanoTime()));
+            LockSupport.parkNanos(100_000);
+        }
+
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%-24s p50 = %,7d us, p99 = %,7d us%n", name,
+                latencies[entries / 2] / 1_000, latencies[entries * 99 / 100] / 1_000);
+    }
+
+    private static long idleCpuNanos(boolean polling) {
+        // CPU burnt by a reader over one second without any new entry.
+        SegmentedLog log = new SegmentedLog();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Thread reader = new Thread(() -> {
+            LogCursor cursor = new LogCursor(log, 0);
+            try {
+                if (polling) {
+                    while (cursor.poll(256).isEmpty()) {
+                        Thread.sleep(1);
+                    }
+                } else {
+                    cursor.take(256);
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+
+        try {
+            Thread.sleep(100);
+            long before = threads.getThreadCpuTime(reader.threadId());
+            Thread.sleep(1_000);
+            long used = threads.getThreadCpuTime(reader.threadId()) - before;
+            log.writeLog("done");
+            reader.join();
+            return used;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void test3() {
+        // Tail latency and idle cost: polling every 1ms vs a blocking cursor.
+        measureTailLatency("polling every 1ms", true);
+        measureTailLatency("LogCursor.take()", false);
+        System.out.printf("idle reader CPU per second: polling = %,d us, LogCursor.take() = %,d us%n",
+                idleCpuNanos(true) / 1_000, idleCpuNanos(false) / 1_000);
+    }
+
+    private static void test4() {
+        // 10k async tailers on one log, none of them holding a thread.
+        int tailers = 10_000;
+        int entries = 100;
+        SegmentedLog log = new SegmentedLog();
+        AtomicInteger delivered = new AtomicInteger();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+
+        for (int t = 0; t < tailers; t++) {
+            LogCursor cursor = new LogCursor(log, 0);
+            CompletableFuture<Void> tail = new CompletableFuture<>();
+            follow(cursor, entries, delivered, tail);
+            done.add(tail);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            log.writeLog("message " + i);
+        }
+        CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+        System.out.printf("%,d tailers got %,d entries in %,d ms, peak threads = %d%n",
+                tailers, delivered.get(), (System.nanoTime() - start) / 1_000_000,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount());
+    }
+
+    private static void follow(LogCursor cursor, int entries, AtomicInteger delivered, CompletableFuture<Void> done) {
+        cursor.takeAsync(256).thenAccept(batch -> {
+            delivered.addAndGet(batch.size());
+            if (cursor.offset() < entries) {
+                follow(cursor, entries, delivered, done);
+            } else {
+                done.complete(null);
+            }
+        });
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    private static void test5() {
+        // 4M entries (~400MB) into 16MB segments with 128MB retention:
+        // the heap stays flat, the disk stays bounded, and the log survives
+        // a reopen.
+        int entries = 4_000_000;
+        String padding = "x".repeat(80);
+        try {
+            Path directory = Files.createTempDirectory("mapped-log");
+            long start = System.nanoTime();
+
+            try (MappedSegmentLog log = new MappedSegmentLog(directory, 16 << 20, 128 << 20, 1, TimeUnit.HOURS)) {
+                for (int i = 0; i < entries; i++) {
+                    log.writeLog("message " + i + " " + padding);
+                    if (i % 1_000_000 == 0) {
+                        System.out.printf("%,9d entries, heap used = %,d KB, segments = %d%n",
+                                i, usedHeap() / 1024, log.segmentCount());
+                    }
+                }
+                System.out.printf("%,d appends/sec, heap used = %,d KB, segments = %d, first index = %,d%n",
+                        entries * 1_000_000_000L / (System.nanoTime() - start),
+                        usedHeap() / 1024, log.segmentCount(), log.firstIndex());
+
+                Random random = new Random();
+                long first = log.firstIndex();
+                int reads = 1_000_000;
+                start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    long index = first + random.nextInt((int) (entries - first));
+                    if (!log.readLogLine(index).startsWith("message " + index + " ")) {
+                        throw new IllegalStateException("Wrong entry at " + index);
+                    }
+                }
+                System.out.printf("random readLogLine: %,d ns each, deleted entry reads as empty = %b%n",
+                        (System.nanoTime() - start) / reads, log.readLogLine(0).isEmpty());
+            }
+
+            try (MappedSegmentLog reopened = new MappedSegmentLog(directory, 16 << 20, 128 << 20, 1, TimeUnit.HOURS)) {
+                long last = reopened.size() - 1;
+                System.out.printf("after reopen: size = %,d, last entry intact = %b%n",
+                        reopened.size(), reopened.readLogLine(last).startsWith("message " + last + " "));
+            }
+
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += gc.getCollectionTime();
+        }
+        return millis;
+    }
+
+    private static void test6() {
+        // Garbage per entry: String entries in a SegmentedLog vs binary
+        // entries from a reused buffer in an ArenaLog (64 x 1MB pages).
+        int entries = 10_000_000;
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        SegmentedLog segmentedLog = new SegmentedLog();
+        long gcBefore = gcMillis();
+        long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            segmentedLog.writeLog("entry " + i + " at " + start);
+        }
+        System.out.printf("SegmentedLog, String entries: %,d ms, allocated %.1f bytes/append, GC %,d ms%n",
+                (System.nanoTime() - start) / 1_000_000,
+                (threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore) / (double) entries,
+                gcMillis() - gcBefore);
+        segmentedLog = null;
+
+        ArenaLog arenaLog = new ArenaLog(1 << 20, 64);
+        ByteBuffer payload = ByteBuffer.allocate(2 * Long.BYTES);
+        gcBefore = gcMillis();
+        allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            payload.clear();
+            payload.putLong(i).putLong(start).flip();
+            arenaLog.writeLog(payload);
+        }
+        System.out.printf("ArenaLog, binary entries:     %,d ms, allocated %.1f bytes/append, GC %,d ms%n",
+                (System.nanoTime() - start) / 1_000_000,
+                (threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore) / (double) entries,
+                gcMillis() - gcBefore);
+
+        // Walk everything that's still in the arena with a single view.
+        LogRecordView view = new LogRecordView();
+        long sum = 0;
+        long read = 0;
+        allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for (long index = arenaLog.size() - 1; arenaLog.readLogRecord(index, view); index--) {
+            long value = view.getLong(0);
+            if (view.isValid()) {
+                sum += value;
+                read++;
+            }
+        }
+        System.out.printf("read %,d retained entries through one view: %.1f ns/entry, allocated %.1f bytes/read "
+                        + "(checksum %d)%n",
+                read, (System.nanoTime() - start) / (double) read,
+                (threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore) / (double) read, sum);
+    }
+
+    private static void test7() {
+        // Keyword and time queries over the last million of 4M entries:
+        // indexed and parallel vs a sequential scan.
+        int entries = 4_000_000;
+        String[] actions = {"login", "logout", "search", "purchase", "refund"};
+        Random random = new Random(42);
+
+        try (IndexedLog log = new IndexedLog()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < entries; i++) {
+                String status = random.nextInt(1_000) == 0 ? "error" : "ok";
+                log.writeLog("user " + random.nextInt(100_000) + " " + actions[i % actions.length] + " " + status);
+            }
+            while (log.indexedSize() < entries) {
+                Thread.onSpinWait();
+            }
+            System.out.printf("appended and indexed %,d entries in %,d ms%n",
+                    entries, (System.nanoTime() - start) / 1_000_000);
+
+            long from = entries - 1_000_000;
+            for (int round = 0; round < 3; round++) {
+                start = System.nanoTime();
+                long scanned = 0;
+                for (long index = from; index < entries; index++) {
+                    if (log.readLogLine(index).endsWith(" error")) {
+                        scanned++;
+                    }
+                }
+                long scanNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                long found = log.search("error", from, entries).count();
+                long searchNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                String firstRefund = log.search("refund", from, entries).findAny().map(e -> e.message).orElse("-");
+                long findAnyNanos = System.nanoTime() - start;
+
+                long now = System.currentTimeMillis();
+                start = System.nanoTime();
+                long lastSecond = log.range(now - 1_000, now + 1).count();
+                long rangeNanos = System.nanoTime() - start;
+
+                System.out.printf("\"error\" in last 1M: scan %,d us (%d), search %,d us (%d); "
+                                + "any \"refund\" %,d us (%s); last second by time %,d us (%,d)%n",
+                        scanNanos / 1_000, scanned, searchNanos / 1_000, found,
+                        findAnyNanos / 1_000, firstRefund, rangeNanos / 1_000, lastSecond);
+            }
+        }
+    }
+
+    private static void test8() {
+        // Append throughput with 4 writers into 1 vs 4 vs 16 partitions, and
+        // per-key ordering checked by one reader per partition.
+        int writers = 4;
+        int keys = 1_000;
+        int appendsPerWriter = 500_000;
+
+        for (int partitionCount : new int[]{1, 4, 16}) {
+            PartitionedLog log = new PartitionedLog(partitionCount);
+            long start = System.nanoTime();
+            try (ExecutorService executorService = Executors.newFixedThreadPool(writers)) {
+                for (int w = 0; w < writers; w++) {
+                    int writer = w;
+                    executorService.submit(() -> {
+                        // Each writer owns its keys, so their sequence numbers
+                        // must come out in order.
+                        for (int i = 0; i < appendsPerWriter; i++) {
+                            String key = "key-" + (writer * keys + i % keys);
+                            log.writeLog(key, key + " " + i);
+                        }
+                    });
+                }
+
+                executorService.shutdown();
+            }
+            long writeNanos = System.nanoTime() - start;
+
+            AtomicBoolean ordered = new AtomicBoolean(true);
+            LongAdder consumed = new LongAdder();
+            try (ExecutorService executorService = Executors.newFixedThreadPool(partitionCount)) {
+                for (int p = 0; p < partitionCount; p++) {
+                    LogCursor cursor = log.cursor(p, 0);
+                    long size = log.size(p);
+                    executorService.submit(() -> {
+                        Map<String, Integer> lastSequence = new HashMap<>();
+                        while (cursor.offset() < size) {
+                            for (String message : cursor.poll(1_024)) {
+                                int space = message.indexOf(' ');
+                                int sequence = Integer.parseInt(message.substring(space + 1));
+                                Integer previous = lastSequence.put(message.substring(0, space), sequence);
+                                if (previous != null && previous >= sequence) {
+                                    ordered.set(false);
+                                }
+                                consumed.increment();
+                            }
+                        }
+                    });
+                }
+
+                executorService.shutdown();
+            }
+
+            System.out.printf("partitions = %2d: %,12.0f appends/sec, consumed %,d, per-key order kept = %b%n",
+                    partitionCount, writers * (double) appendsPerWriter / (writeNanos / 1_000_000_000.0),
+                    consumed.sum(), ordered.get());
+        }
+    }
+
+    private static long fillWithRandomMessages(SegmentedLog log, int entries) {
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            log.writeLog("random message " + random.nextInt(10000));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void test9() {
+        // Memory of 2M `Writer`-style messages raw vs compressed, and read
+        // latency of compressed entries with a cold vs warm block cache.
+        int entries = 2_000_000;
+        long heapBefore = usedHeap();
+        SegmentedLog rawLog = new SegmentedLog();
+        long rawNanos = fillWithRandomMessages(rawLog, entries);
+        long rawHeap = usedHeap() - heapBefore;
+        rawLog = null;
+
+        heapBefore = usedHeap();
+        try (SegmentedLog log = new SegmentedLog(1_024)) {
+            long compressedNanos = fillWithRandomMessages(log, entries);
+            while (log.compressedSegments() < entries / 4096) {
+                LockSupport.parkNanos(1_000_000);
+            }
+            long compressedHeap = usedHeap() - heapBefore;
+            System.out.printf("raw: %,d KB, appends took %,d ms; compressed: %,d KB (%,d KB of blocks), "
+                            + "appends took %,d ms; %.1fx smaller%n",
+                    rawHeap / 1024, rawNanos / 1_000_000, compressedHeap / 1024, log.compressedBytes() / 1024,
+                    compressedNanos / 1_000_000, rawHeap / (double) compressedHeap);
+
+            Random random = new Random();
+            int reads = 20_000;
+            long sealed = log.compressedSegments() * 4096L;
+            for (int round = 0; round < 3; round++) {
+                log.cache().clear();
+                long start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    // A different block every time: always a miss.
+                    log.readLogLine((i * 256L + random.nextInt(256)) % sealed);
+                }
+                long coldNanos = (System.nanoTime() - start) / reads;
+
+                for (int block = 0; block < 512; block++) {
+                    log.readLogLine(block * 256L);
+                }
+                start = System.nanoTime();
+                for (int i = 0; i < reads; i++) {
+                    // Within the first 512 blocks, all of them cached by now.
+                    log.readLogLine(random.nextInt(256 * 512));
+                }
+                long warmNanos = (System.nanoTime() - start) / reads;
+                System.out.printf("read compressed entry: cold block %,d ns, cached block %,d ns%n",
+                        coldNanos, warmNanos);
+            }
+        }
+    }
+
     public static void main(String[] args) {
+        test2();
+        test3();
+        test4();
+        test5();
+        test6();
+        test7();
+        test8();
+        test9();
+        // Runs forever, so last.
         test1();
     }
 }
@@ -0,0 +1,254 @@
+package com.concurrency.inmemorylog;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+class IndexedLog implements LogStore, AutoCloseable {
+    /*
+        A `SegmentedLog` with two secondary indexes, so entries can be found
+        by time or by keyword without scanning the whole log:
+            - a timestamp index: when each entry was indexed,
+            - an inverted index: for each token, the entries containing it.
+
+        Built incrementally:
+            A background indexer tails the log with a `LogCursor` and indexes
+            every new entry right after it's appended. Writers don't do any
+            extra work. The indexes lag the log by a few microseconds, and
+            `indexedSize()` says how far they got. The timestamp of an entry
+            is the time it got indexed; under a write burst that the indexer
+            has to catch up with, it can be later than the append.
+
+        Blocks:
+            The indexes are split into blocks of `BLOCK_SIZE` consecutive
+            entries. A block holds the timestamps of its entries (plus their
+            min and max) and a map from token to the positions in the block
+            that contain it. Only the indexer writes, readers take no lock:
+                - a block's `indexed` count is volatile and bumped after an
+                  entry is fully indexed; readers never look past it,
+                - a posting list publishes its array before its size, so a
+                  reader that reads the size first always gets an array
+                  holding at least that many positions.
+
+        Queries:
+            A query only looks at the blocks in its index range, skips blocks
+            whose min/max timestamps are outside its time range, and runs
+            over the blocks in parallel. The result is a lazy `Stream`: the
+            messages are only read from the log for the matches that are
+            actually consumed, so `findFirst()` or `limit()` stop early.
+     */
+    private static final int BLOCK_BITS = 12;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    static final class Entry {
+        final long index;
+        final long timestamp;
+        final String message;
+
+        Entry(long index, long timestamp, String message) {
+            this.index = index;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return this.index + " @ " + this.timestamp + ": " + this.message;
+        }
+    }
+
+    private static final class Postings {
+        private volatile int[] positions = new int[4];
+        private volatile int size;
+
+        void add(int position) {
+            int[] current = this.positions;
+            if (this.size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                this.positions = current;
+            }
+            current[this.size] = position;
+            this.size = this.size + 1;
+        }
+
+        IntStream stream() {
+            int size = this.size;
+            return Arrays.stream(this.positions, 0, size);
+        }
+    }
+
+    private static final class Block {
+        final long baseIndex;
+        final long[] timestamps = new long[BLOCK_SIZE];
+        final ConcurrentHashMap<String, Postings> postings = new ConcurrentHashMap<>();
+        volatile long minTimestamp = Long.MAX_VALUE;
+        volatile long maxTimestamp = Long.MIN_VALUE;
+        volatile int indexed;
+
+        Block(long baseIndex) {
+            this.baseIndex = baseIndex;
+        }
+    }
+
+    private final SegmentedLog log;
+    private final Thread indexer;
+    private volatile Block[] blocks;
+    private volatile long indexedSize;
+
+    public IndexedLog() {
+        this.log = new SegmentedLog();
+        this.blocks = new Block[16];
+        this.indexer = Thread.ofPlatform().name("log-indexer").daemon().start(this::index);
+    }
+
+    @Override
+    public long writeLog(String message) {
+        return this.log.writeLog(message);
+    }
+
+    @Override
+    public String readLogLine(long index) {
+        return this.log.readLogLine(index);
+    }
+
+    public long size() {
+        return this.log.size();
+    }
+
+    /**
+     * Number of entries the indexes cover; queries don't see the entries
+     * after them yet.
+     */
+    public long indexedSize() {
+        return this.indexedSize;
+    }
+
+    /**
+     * Entries between {@code fromIndex} (inclusive) and {@code toIndex}
+     * (exclusive) that contain the keyword as a whole token, ignoring case.
+     * Unordered.
+     */
+    public Stream<Entry> search(String keyword, long fromIndex, long toIndex) {
+        String token = keyword.toLowerCase(Locale.ROOT);
+        return blocks(fromIndex, toIndex).flatMap(block -> {
+            Postings postings = block.postings.get(token);
+            if (postings == null) {
+                return Stream.empty();
+            }
+            int indexed = block.indexed;
+            return postings.stream()
+                    .filter(position -> position < indexed && inRange(block, position, fromIndex, toIndex))
+                    .mapToObj(position -> entry(block, position));
+        });
+    }
+
+    /**
+     * Entries indexed between {@code fromMillis} (inclusive) and
+     * {@code toMillis} (exclusive). Unordered.
+     */
+    public Stream<Entry> range(long fromMillis, long toMillis) {
+        return blocks(0, Long.MAX_VALUE)
+                .filter(block -> block.maxTimestamp >= fromMillis && block.minTimestamp < toMillis)
+                .flatMap(block -> IntStream.range(0, block.indexed)
+                        .filter(position -> block.timestamps[position] >= fromMillis
+                                && block.timestamps[position] < toMillis)
+                        .mapToObj(position -> entry(block, position)));
+    }
+
+    @Override
+    public void close() {
+        this.indexer.interrupt();
+    }
+
+    private Stream<Block> blocks(long fromIndex, long toIndex) {
+        // Size first: a block array read after it covers every block it
+        // counts.
+        long indexedSize = this.indexedSize;
+        Block[] blocks = this.blocks;
+        long last = Math.min(toIndex, indexedSize) - 1;
+        if (last < Math.max(0, fromIndex)) {
+            return Stream.empty();
+        }
+        return LongStream.rangeClosed(Math.max(0, fromIndex) >>> BLOCK_BITS, last >>> BLOCK_BITS)
+                .parallel()
+                .mapToObj(block -> blocks[(int) block]);
+    }
+
+    private static boolean inRange(Block block, int position, long fromIndex, long toIndex) {
+        long index = block.baseIndex + position;
+        return index >= fromIndex && index < toIndex;
+    }
+
+    private Entry entry(Block block, int position) {
+        long index = block.baseIndex + position;
+        return new Entry(index, block.timestamps[position], this.log.readLogLine(index));
+    }
+
+    private void index() {
+        LogCursor cursor = new LogCursor(this.log, 0);
+        try {
+            while (true) {
+                List<String> batch = cursor.take(BLOCK_SIZE);
+                long now = System.currentTimeMillis();
+                for (String message : batch) {
+                    index(this.indexedSize, message, now);
+                    this.indexedSize = this.indexedSize + 1;
+                }
+            }
+        } catch (InterruptedException ex) {
+            // Closed.
+        }
+    }
+
+    private void index(long index, String message, long timestamp) {
+        Block block = blockFor(index);
+        int position = (int) (index & (BLOCK_SIZE - 1));
+
+        block.timestamps[position] = timestamp;
+        if (timestamp < block.minTimestamp) {
+            block.minTimestamp = timestamp;
+        }
+        if (timestamp > block.maxTimestamp) {
+            block.maxTimestamp = timestamp;
+        }
+
+        // Tokens are the runs of letters and digits, lower-cased. A token that
+        // occurs twice in the same message is only posted once.
+        int length = message.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean tokenChar = i < length && Character.isLetterOrDigit(message.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                String token = message.substring(start, i).toLowerCase(Locale.ROOT);
+                Postings postings = block.postings.computeIfAbsent(token, t -> new Postings());
+                int size = postings.size;
+                if (size == 0 || postings.positions[size - 1] != position) {
+                    postings.add(position);
+                }
+                start = -1;
+            }
+        }
+
+        block.indexed = position + 1;
+    }
+
+    private Block blockFor(long index) {
+        int number = (int) (index >>> BLOCK_BITS);
+        Block[] blocks = this.blocks;
+        if (number == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        }
+        if (blocks[number] == null) {
+            blocks[number] = new Block(index & ~(long) (BLOCK_SIZE - 1));
+            // Publishes the new block (and the grown array) to readers.
+            this.blocks = blocks;
+        }
+        return blocks[number];
+    }
+}
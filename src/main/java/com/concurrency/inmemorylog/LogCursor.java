@@ -0,0 +1,119 @@
+package com.concurrency.inmemorylog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class LogCursor {
+    /*
+        A reader's position in a `SegmentedLog`, replacing the
+        "readLogLine(next), sleep a random while, try again" loop of `Reader`.
+
+        That loop has two problems. Latency: a new entry waits on average
+        half the sleep before anybody notices it. Cost: an idle reader keeps
+        waking up just to find nothing new. Here a reader:
+            - fetches everything from its offset in one batch (`poll()`),
+            - and when there's nothing new, waits for the next append
+              without a thread spinning or sleeping on a timer:
+              `take()` blocks on a future that the writer completes right
+              after publishing, `takeAsync()` returns that future chained
+              with the next fetch.
+        An idle reader costs nothing but one queued future, and it's woken
+        microseconds after the append.
+
+        A cursor belongs to one reader; it's not meant to be shared between
+        threads. Any number of cursors can tail the same log.
+     */
+    private final SegmentedLog log;
+    private long offset;
+
+    public LogCursor(SegmentedLog log, long offset) {
+        this.log = log;
+        this.offset = offset;
+    }
+
+    /**
+     * Index of the next entry this cursor will return.
+     */
+    public long offset() {
+        return this.offset;
+    }
+
+    /**
+     * Returns up to {@code max} new entries, possibly none. Never blocks.
+     */
+    public List<String> poll(int max) {
+        List<String> batch = new ArrayList<>();
+        this.offset += this.log.readLogLines(this.offset, max, batch);
+        return batch;
+    }
+
+    /**
+     * Returns up to {@code max} new entries, waiting until at least one is
+     * there.
+     */
+    public List<String> take(int max) throws InterruptedException {
+        while (true) {
+            List<String> batch = poll(max);
+            if (!batch.isEmpty()) {
+                return batch;
+            }
+
+            CompletableFuture<Void> next = this.log.awaitEntry(this.offset);
+            try {
+                next.get();
+            } catch (InterruptedException ex) {
+                this.log.abandon(next);
+                throw ex;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Like {@link #take(int)}, but waits at most the given time. Returns an
+     * empty list if nothing new arrived in time.
+     */
+    public List<String> take(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            List<String> batch = poll(max);
+            long remaining = deadline - System.nanoTime();
+            if (!batch.isEmpty() || remaining <= 0) {
+                return batch;
+            }
+
+            CompletableFuture<Void> next = this.log.awaitEntry(this.offset);
+            try {
+                next.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                this.log.abandon(next);
+            } catch (InterruptedException ex) {
+                this.log.abandon(next);
+                throw ex;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns a future of up to {@code max} new entries that completes once
+     * at least one is there. No thread waits in the meantime.
+     *
+     * The future completes on the writer's thread, like the futures of
+     * `AsyncSemaphoreRateLimiter`: chain anything heavy with an executor.
+     * Don't call it again before the previous future completed.
+     */
+    public CompletableFuture<List<String>> takeAsync(int max) {
+        List<String> batch = poll(max);
+        if (!batch.isEmpty()) {
+            return CompletableFuture.completedFuture(batch);
+        }
+        return this.log.awaitEntry(this.offset).thenCompose(next -> takeAsync(max));
+    }
+}
@@ -0,0 +1,64 @@
+package com.concurrency.inmemorylog;
+
+import java.lang.invoke.VarHandle;
+
+class LogRecordView {
+    /*
+        Flyweight over one entry of an `ArenaLog`: a page, an offset and a
+        length, nothing else. `ArenaLog.readLogRecord()` re-points the same
+        view at another entry, so a reader can walk millions of entries with
+        one view and without copying their bytes out.
+
+        The view reads straight from the log's page. Once the page gets
+        recycled, the bytes under the view change. So read what you need,
+        then call `isValid()`: if it's still true, what you read was the
+        entry; if not, throw it away, the entry is gone.
+     */
+    private ArenaLog.Page page;
+    private long pageNumber;
+    private int offset;
+    private int length;
+
+    void wrap(ArenaLog.Page page, long pageNumber, int offset, int length) {
+        this.page = page;
+        this.pageNumber = pageNumber;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public byte getByte(int index) {
+        return this.page.data.get(this.offset + checkIndex(index, Byte.BYTES));
+    }
+
+    public int getInt(int index) {
+        return this.page.data.getInt(this.offset + checkIndex(index, Integer.BYTES));
+    }
+
+    public long getLong(int index) {
+        return this.page.data.getLong(this.offset + checkIndex(index, Long.BYTES));
+    }
+
+    public void copyTo(byte[] destination) {
+        this.page.data.get(this.offset, destination, 0, Math.min(this.length, destination.length));
+    }
+
+    /**
+     * True if the entry hasn't been recycled since the view was pointed at
+     * it, i.e. everything read from the view so far is the entry's data.
+     */
+    public boolean isValid() {
+        VarHandle.loadLoadFence();
+        return this.page != null && this.page.number == this.pageNumber;
+    }
+
+    private int checkIndex(int index, int bytes) {
+        if (index < 0 || index > this.length - bytes) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of entry of length " + this.length);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,23 @@
+package com.concurrency.inmemorylog;
+
+interface LogStore {
+    /*
+        Common contract of the log engines, so that `Writer` and `Reader`
+        work with the lock-based `InMemoryLogging` as well as with the
+        lock-free `SegmentedLog`.
+
+        Entries are addressed by their index, 0 for the first one. Indexes
+        are handed out in append order and never reused.
+     */
+
+    /**
+     * Appends the message and returns its index.
+     */
+    long writeLog(String message);
+
+    /**
+     * Returns the entry at the given index, or an empty string if there's
+     * no such entry (yet).
+     */
+    String readLogLine(long index);
+}
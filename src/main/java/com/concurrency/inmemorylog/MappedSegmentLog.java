@@ -0,0 +1,320 @@
+package com.concurrency.inmemorylog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+class MappedSegmentLog implements LogStore, AutoCloseable {
+    /*
+        A log that lives in files instead of on the heap, so it can grow far
+        beyond the heap (and survive a restart).
+
+        Segments:
+            The log is split into segment files of `segmentBytes` each, named
+            after the index of their first entry (`00000000000000001000.log`).
+            Appends go to the last (active) segment; once a record doesn't
+            fit any more, it's sealed and a new one is started. Each file is
+            memory-mapped: an append is a memcpy into the page cache and the
+            kernel writes it back in the background, a read is a memcpy out
+            of it. Neither goes through a system call, and none of the data
+            is on the Java heap.
+
+        Record format, length-prefixed:
+            [length + 1: 4][UTF-8 bytes of the message: length]
+            The payload is written first and the header last, and the files
+            start out zero-filled. So a header of 0 marks the end of the
+            data, also after a crash in the middle of an append (hence the
+            "+ 1": an empty message must not look like the end).
+
+        Sparse index:
+            Records have different lengths, so entry i can't be found by
+            arithmetic. Next to every segment lives an index file holding the
+            position of every `INDEX_INTERVAL`-th record. Finding entry i is
+            a lookup of its segment in a skip list (O(log segments)), one
+            read from the index file, and a walk over at most 63 record
+            headers. The index is mapped too, so it's not on the heap either.
+            Per segment the heap only holds a small `Segment` object.
+
+        Retention:
+            Whenever a segment is sealed, the oldest sealed segments are
+            deleted while the log is over `retentionBytes` or the segment was
+            sealed more than `retentionTime` ago. Their entries then read as
+            missing, like entries that were never written. A reader still in
+            the middle of a deleted segment is fine: the mapping stays valid
+            until it's garbage collected, even though the file is gone.
+
+        Concurrency: appends are serialized by a lock. Reads take no lock:
+        the writer bumps the volatile `published` count after a record and
+        its index entry are complete, and readers never look past it.
+
+        Recovery: on open the existing segments are mapped again; only the
+        active one has to be scanned to find where its data ends, and the
+        rest of it is zeroed.
+     */
+    private static final int INDEX_INTERVAL = 64;
+    private static final int HEADER_BYTES = Integer.BYTES;
+
+    private static final class Segment {
+        final long baseIndex;
+        final Path logFile;
+        final Path indexFile;
+        final MappedByteBuffer log;
+        final MappedByteBuffer index;
+        int position;
+        int entries;
+        long sealedAtMillis;
+
+        Segment(long baseIndex, Path directory, int segmentBytes) throws IOException {
+            this.baseIndex = baseIndex;
+            this.logFile = directory.resolve(String.format("%020d.log", baseIndex));
+            this.indexFile = directory.resolve(String.format("%020d.index", baseIndex));
+            this.log = map(this.logFile, segmentBytes);
+            this.index = map(this.indexFile, (segmentBytes / HEADER_BYTES / INDEX_INTERVAL + 1) * Integer.BYTES);
+        }
+
+        private static MappedByteBuffer map(Path file, int bytes) throws IOException {
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            }
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(this.logFile);
+            Files.deleteIfExists(this.indexFile);
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final ConcurrentSkipListMap<Long, Segment> segments;
+    private final Lock lock;
+
+    private Segment active;
+    private volatile long published;
+
+    public MappedSegmentLog(Path directory, int segmentBytes, long retentionBytes,
+                            long retentionTime, TimeUnit unit) throws IOException {
+        if (segmentBytes < HEADER_BYTES * INDEX_INTERVAL || retentionBytes < segmentBytes) {
+            throw new IllegalArgumentException("Expected " + HEADER_BYTES * INDEX_INTERVAL
+                    + " <= segmentBytes <= retentionBytes");
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = unit.toMillis(retentionTime);
+        this.segments = new ConcurrentSkipListMap<>();
+        this.lock = new ReentrantLock();
+
+        recover();
+    }
+
+    @Override
+    public long writeLog(String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        if (HEADER_BYTES + payload.length > this.segmentBytes) {
+            throw new IllegalArgumentException("Message of " + payload.length
+                    + " bytes doesn't fit a segment of " + this.segmentBytes + " bytes");
+        }
+
+        this.lock.lock();
+
+        try {
+            if (this.active.position + HEADER_BYTES + payload.length > this.segmentBytes) {
+                roll();
+            }
+
+            Segment segment = this.active;
+            int position = segment.position;
+            if (segment.entries % INDEX_INTERVAL == 0) {
+                segment.index.putInt(segment.entries / INDEX_INTERVAL * Integer.BYTES, position);
+            }
+            segment.log.put(position + HEADER_BYTES, payload);
+            segment.log.putInt(position, payload.length + 1);
+            segment.position = position + HEADER_BYTES + payload.length;
+            segment.entries++;
+
+            long index = this.published;
+            this.published = index + 1;
+            return index;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String readLogLine(long index) {
+        if (index < 0 || index >= this.published) {
+            return "";
+        }
+
+        Map.Entry<Long, Segment> entry = this.segments.floorEntry(index);
+        if (entry == null) {
+            // Deleted by retention.
+            return "";
+        }
+
+        Segment segment = entry.getValue();
+        int relative = (int) (index - segment.baseIndex);
+        int position = segment.index.getInt(relative / INDEX_INTERVAL * Integer.BYTES);
+        for (int skip = relative % INDEX_INTERVAL; skip > 0; skip--) {
+            position += HEADER_BYTES + segment.log.getInt(position) - 1;
+        }
+
+        byte[] payload = new byte[segment.log.getInt(position) - 1];
+        segment.log.get(position + HEADER_BYTES, payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Index of the oldest entry that wasn't deleted by retention yet.
+     */
+    public long firstIndex() {
+        Map.Entry<Long, Segment> first = this.segments.firstEntry();
+        return first == null ? this.published : first.getKey();
+    }
+
+    public long size() {
+        return this.published;
+    }
+
+    public int segmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Forces the active segment to disk. Sealed segments were forced when
+     * they were sealed.
+     */
+    public void flush() {
+        this.lock.lock();
+
+        try {
+            this.active.log.force();
+            this.active.index.force();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the retention rules now. Happens on its own whenever a segment
+     * is sealed; call it periodically if the log may go quiet for longer
+     * than the retention time.
+     */
+    public void enforceRetention() {
+        this.lock.lock();
+
+        try {
+            long now = System.currentTimeMillis();
+            long bytes = (long) this.segments.size() * this.segmentBytes;
+            while (this.segments.size() > 1) {
+                Segment oldest = this.segments.firstEntry().getValue();
+                if (bytes <= this.retentionBytes && now - oldest.sealedAtMillis < this.retentionMillis) {
+                    break;
+                }
+                this.segments.remove(oldest.baseIndex);
+                oldest.delete();
+                bytes -= this.segmentBytes;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to delete an expired log segment", ex);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private void roll() {
+        // Called with the lock held.
+        try {
+            Segment sealed = this.active;
+            sealed.log.force();
+            sealed.index.force();
+            sealed.sealedAtMillis = System.currentTimeMillis();
+
+            Segment next = new Segment(this.published, this.directory, this.segmentBytes);
+            this.segments.put(next.baseIndex, next);
+            this.active = next;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to create a new log segment", ex);
+        }
+        enforceRetention();
+    }
+
+    private void recover() throws IOException {
+        List<Long> baseIndexes = new ArrayList<>();
+        try (Stream<Path> files = Files.list(this.directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".log"))
+                    .forEach(name -> baseIndexes.add(Long.parseLong(name.substring(0, name.length() - 4))));
+        }
+        baseIndexes.sort(null);
+
+        if (baseIndexes.isEmpty()) {
+            baseIndexes.add(0L);
+        }
+        for (int i = 0; i < baseIndexes.size(); i++) {
+            Segment segment = new Segment(baseIndexes.get(i), this.directory, this.segmentBytes);
+            if (i + 1 < baseIndexes.size()) {
+                // Sealed: its entry count follows from the next segment's name.
+                segment.entries = (int) (baseIndexes.get(i + 1) - segment.baseIndex);
+                segment.position = this.segmentBytes;
+                segment.sealedAtMillis = Files.getLastModifiedTime(segment.logFile).toMillis();
+            } else {
+                scan(segment);
+            }
+            this.segments.put(segment.baseIndex, segment);
+        }
+
+        this.active = this.segments.lastEntry().getValue();
+        this.published = this.active.baseIndex + this.active.entries;
+    }
+
+    private void scan(Segment segment) {
+        // Walks the records of the active segment up to the first zero (or
+        // impossible) header, re-writing its index entries on the way.
+        int position = 0;
+        int entries = 0;
+        while (position + HEADER_BYTES <= this.segmentBytes) {
+            int length = segment.log.getInt(position) - 1;
+            if (length < 0 || position + HEADER_BYTES + length > this.segmentBytes) {
+                break;
+            }
+            if (entries % INDEX_INTERVAL == 0) {
+                segment.index.putInt(entries / INDEX_INTERVAL * Integer.BYTES, position);
+            }
+            position += HEADER_BYTES + length;
+            entries++;
+        }
+        segment.position = position;
+        segment.entries = entries;
+
+        // A torn append may have left part of its payload behind the end.
+        // Shorter records written over it later would leave those bytes in
+        // place, and the next recovery could take them for a header.
+        for (int i = position; i < this.segmentBytes; i++) {
+            segment.log.put(i, (byte) 0);
+        }
+    }
+}
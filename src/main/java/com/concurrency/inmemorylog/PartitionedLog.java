@@ -0,0 +1,68 @@
+package com.concurrency.inmemorylog;
+
+class PartitionedLog {
+    /*
+        N independent `SegmentedLog`s (partitions) behind one front door.
+
+        Every append to a single log goes through one counter, its `tail`:
+        all writers on all cores increment the same cache line, which then
+        bounces between the cores. Partitions split that hot spot in N, so
+        appends to different partitions don't touch any shared memory at
+        all, and write throughput grows with the number of partitions (up
+        to the number of cores).
+
+        Ordering: a message is routed to a partition by the hash of its key,
+        so all messages of one key land in the same partition, in the order
+        they were appended. There's no order across partitions, and no
+        global index: an entry is addressed by (partition, offset).
+
+        Readers: each partition is tailed on its own, with its own
+        `LogCursor` and offset, so N readers can consume N partitions in
+        parallel, each one at its own pace.
+     */
+    private final SegmentedLog[] partitions;
+
+    public PartitionedLog(int partitionCount) {
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("partitionCount must be positive");
+        }
+
+        this.partitions = new SegmentedLog[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            this.partitions[i] = new SegmentedLog();
+        }
+    }
+
+    public int partitionCount() {
+        return this.partitions.length;
+    }
+
+    public int partitionFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, this.partitions.length);
+    }
+
+    /**
+     * Appends the message to the partition of its key and returns its
+     * offset in that partition.
+     */
+    public long writeLog(String key, String message) {
+        return this.partitions[partitionFor(key)].writeLog(message);
+    }
+
+    public String readLogLine(int partition, long offset) {
+        return this.partitions[partition].readLogLine(offset);
+    }
+
+    public long size(int partition) {
+        return this.partitions[partition].size();
+    }
+
+    /**
+     * A cursor over one partition, starting at the given offset.
+     */
+    public LogCursor cursor(int partition, long offset) {
+        return new LogCursor(this.partitions[partition], offset);
+    }
+}
@@ -0,0 +1,366 @@
+package com.concurrency.inmemorylog;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+class SegmentedLog implements LogStore, AutoCloseable {
+    /*
+        An append-only log without any lock.
+
+        The entries live in fixed-size segments of `SEGMENT_SIZE` slots. A
+        segment is never resized or copied, so a reference to it (and to
+        its slots) stays valid forever. That's what `ArrayList` can't offer:
+        `add()` may copy the whole backing array, which is why every append
+        there needs the exclusive write lock, and every read the read lock.
+
+        Appending is two steps:
+            1. Claim: `tail.getAndIncrement()` gives the writer its own
+               slot index. One atomic instruction, no retry loop, and no two
+               writers ever get the same slot.
+            2. Publish: the message is stored into the slot with a volatile
+               store. Everything the writer did before (e.g. building the
+               message) is visible to any thread that reads the slot and sees
+               the message. A release store (`setRelease`) would be enough
+               for that, but the writer also has to see readers that went to
+               sleep waiting for this very slot, see `awaitEntry()`.
+        A slot that is claimed but not published yet holds null, and readers
+        report it as "no entry yet", exactly like an index past the end.
+
+        Reading is a few plain array lookups plus one acquire load. No lock,
+        no CAS, no loop: it's wait-free, it never blocks and never times out.
+
+        Segments are found through a two-level directory (top -> chunk ->
+        segment), allocated lazily. Whoever first needs a chunk or segment
+        installs it with a compareAndSet from null; a thread that loses the
+        race just uses the winner's. Installed entries never change, so no
+        copying is needed when the log grows and readers never see a
+        half-grown directory. 1024 * 1024 segments of 4096 slots give room
+        for 2^32 entries while an empty log costs only the 8KB top array.
+
+        Waiting for new entries (see `LogCursor`):
+            A reader that caught up with the log registers a future in
+            `waiters` and re-checks its slot; a writer publishes its slot and
+            then checks `waiters`. Both are volatile accesses, so at least
+            one of the two sees the other: either the reader finds the entry
+            on its re-check, or the writer finds the waiter and completes it.
+            A wakeup can't get lost between "nothing new" and "go to sleep".
+
+            `waiters` is sorted by the index waited for, with one queue per
+            index (typically all tailers wait for the same next index). A
+            writer only takes the queues up to its own index off the front
+            and never looks at anybody waiting further ahead, so an append
+            costs one look at the first key plus the waiters it actually
+            wakes, however many tailers there are. Queues below its index
+            are leftovers of readers that found their entry on the re-check,
+            or wait for a slot whose writer hasn't published yet; those are
+            left to that writer.
+            Waking everybody on any append would livelock: a woken reader
+            that finds nothing new registers again right away, and the
+            writer, still draining, would wake it again, forever.
+
+        Compression (optional, see the constructor):
+            A segment whose 4096 slots are all published is sealed: nobody
+            will ever write to it again. A background thread waits for each
+            segment to be sealed, compresses it into a `CompressedSegment`
+            and swaps it into the directory in place of the raw one. Writers
+            never see it, they only work on segments that aren't sealed yet,
+            so appends don't get any slower. A reader that still holds the
+            raw segment keeps using it, it stays valid.
+            Reading a compressed entry inflates its block of 256 entries,
+            unless the block is in the `BlockCache` LRU. That read takes the
+            cache's lock, so unlike reads of the raw segments it isn't
+            wait-free.
+     */
+    private static final int SEGMENT_BITS = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int TOP_SIZE = 1 << 10;
+    private static final long CAPACITY = (long) TOP_SIZE * CHUNK_SIZE * SEGMENT_SIZE;
+
+    private static final class Waiter extends CompletableFuture<Void> {
+        final long index;
+
+        Waiter(long index) {
+            this.index = index;
+        }
+    }
+
+    // A chunk slot holds a raw AtomicReferenceArray<String> segment or,
+    // once it's sealed and compressed, a CompressedSegment.
+    private final AtomicReferenceArray<AtomicReferenceArray<Object>> top;
+    private final AtomicLong tail;
+    private final ConcurrentSkipListMap<Long, Queue<Waiter>> waiters;
+    private final BlockCache cache;
+    private final Thread compressor;
+
+    public SegmentedLog() {
+        this(0);
+    }
+
+    /**
+     * With {@code cachedBlocks > 0}, sealed segments are compressed in the
+     * background and up to that many decoded blocks are cached.
+     */
+    public SegmentedLog(int cachedBlocks) {
+        this.top = new AtomicReferenceArray<>(TOP_SIZE);
+        this.tail = new AtomicLong();
+        this.waiters = new ConcurrentSkipListMap<>();
+        if (cachedBlocks > 0) {
+            this.cache = new BlockCache(cachedBlocks);
+            this.compressor = Thread.ofPlatform().name("log-compressor").daemon()
+                    .start(this::compressSealedSegments);
+        } else {
+            this.cache = null;
+            this.compressor = null;
+        }
+    }
+
+    @Override
+    public long writeLog(String message) {
+        if (message == null) {
+            throw new IllegalArgumentException("message must not be null");
+        }
+
+        long index = this.tail.getAndIncrement();
+        if (index >= CAPACITY) {
+            throw new IllegalStateException("Log is full, capacity = " + CAPACITY);
+        }
+
+        segmentFor(index).set((int) (index & (SEGMENT_SIZE - 1)), message);
+        if (!this.waiters.isEmpty()) {
+            wakeWaiters(index);
+        }
+        return index;
+    }
+
+    @Override
+    public String readLogLine(long index) {
+        Object segment = publishedSegment(index);
+        int offset = (int) (index & (SEGMENT_SIZE - 1));
+        if (segment instanceof CompressedSegment compressed) {
+            String[] block = this.cache.get(compressed, CompressedSegment.blockOf(offset));
+            return block[offset % CompressedSegment.BLOCK_ENTRIES];
+        }
+        if (segment == null) {
+            return "";
+        }
+        String message = raw(segment).getAcquire(offset);
+        return message == null ? "" : message;
+    }
+
+    /**
+     * Copies up to {@code max} consecutive entries starting at {@code from}
+     * into {@code into}, stopping at the first slot that isn't published
+     * yet. Returns how many were copied. Cheaper than one `readLogLine()`
+     * per entry: the segment is looked up once per 4096 entries.
+     */
+    public int readLogLines(long from, int max, List<? super String> into) {
+        int copied = 0;
+        long index = Math.max(0, from);
+        while (copied < max && index < CAPACITY) {
+            Object segment = publishedSegment(index);
+            if (segment == null) {
+                break;
+            }
+
+            int offset = (int) (index & (SEGMENT_SIZE - 1));
+            if (segment instanceof CompressedSegment compressed) {
+                // Sealed, so every entry is there: copy the rest of the block.
+                String[] block = this.cache.get(compressed, CompressedSegment.blockOf(offset));
+                int start = offset % CompressedSegment.BLOCK_ENTRIES;
+                int end = Math.min(CompressedSegment.BLOCK_ENTRIES, start + max - copied);
+                for (int i = start; i < end; i++) {
+                    into.add(block[i]);
+                    copied++;
+                    index++;
+                }
+                continue;
+            }
+
+            AtomicReferenceArray<String> entries = raw(segment);
+            while (copied < max && offset < SEGMENT_SIZE) {
+                String message = entries.getAcquire(offset);
+                if (message == null) {
+                    return copied;
+                }
+                into.add(message);
+                copied++;
+                offset++;
+                index++;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Returns a future that completes once the entry at {@code index} is
+     * published. Completes on the writer's thread.
+     */
+    public CompletableFuture<Void> awaitEntry(long index) {
+        if (isPublished(index)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Waiter waiter = new Waiter(index);
+        // The queue may already be taken off by the writer of `index`; then
+        // the re-check below finds the entry.
+        this.waiters.computeIfAbsent(index, key -> new ConcurrentLinkedQueue<>()).add(waiter);
+        if (isPublished(index)) {
+            // Published in between, the writer may or may not have seen us.
+            // An empty queue left behind is taken off by a later append.
+            waiter.complete(null);
+        }
+        return waiter;
+    }
+
+    /**
+     * Withdraws a future of `awaitEntry()` whose caller stopped waiting, so
+     * an idle log doesn't pile up waiters nobody listens to.
+     */
+    void abandon(CompletableFuture<Void> waiter) {
+        waiter.cancel(false);
+        if (waiter instanceof Waiter registered) {
+            // The queue itself stays: a reader may be adding to it right now.
+            Queue<Waiter> queue = this.waiters.get(registered.index);
+            if (queue != null) {
+                queue.remove(registered);
+            }
+        }
+    }
+
+    public int compressedSegments() {
+        int segments = 0;
+        for (long number = 0; number < (size() >>> SEGMENT_BITS); number++) {
+            if (publishedSegment(number << SEGMENT_BITS) instanceof CompressedSegment) {
+                segments++;
+            }
+        }
+        return segments;
+    }
+
+    public long compressedBytes() {
+        long bytes = 0;
+        for (long number = 0; number < (size() >>> SEGMENT_BITS); number++) {
+            if (publishedSegment(number << SEGMENT_BITS) instanceof CompressedSegment compressed) {
+                bytes += compressed.compressedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    BlockCache cache() {
+        return this.cache;
+    }
+
+    @Override
+    public void close() {
+        if (this.compressor != null) {
+            this.compressor.interrupt();
+        }
+    }
+
+    /**
+     * Number of claimed slots. The last few of them may not be published
+     * yet.
+     */
+    public long size() {
+        return Math.min(this.tail.get(), CAPACITY);
+    }
+
+    private boolean isPublished(long index) {
+        Object segment = publishedSegment(index);
+        return segment instanceof CompressedSegment
+                || segment != null && raw(segment).get((int) (index & (SEGMENT_SIZE - 1))) != null;
+    }
+
+    private void compressSealedSegments() {
+        try {
+            for (long number = 0; number < (CAPACITY >>> SEGMENT_BITS); number++) {
+                // Sealed once every slot is published, whatever the order.
+                // Polled rather than waited for with `awaitEntry()`: a waiter
+                // would make every append walk the waiter queue.
+                for (long index = number << SEGMENT_BITS; index < (number + 1) << SEGMENT_BITS; index++) {
+                    while (!isPublished(index)) {
+                        Thread.sleep(10);
+                    }
+                }
+
+                long first = number << SEGMENT_BITS;
+                AtomicReferenceArray<Object> chunk = this.top.get(topIndex(first));
+                int chunkIndex = chunkIndex(first);
+                chunk.set(chunkIndex, CompressedSegment.compress(number, raw(chunk.get(chunkIndex))));
+            }
+        } catch (InterruptedException ex) {
+            // Closed.
+        }
+    }
+
+    private void wakeWaiters(long published) {
+        Map.Entry<Long, Queue<Waiter>> first = this.waiters.firstEntry();
+        if (first == null || first.getKey() > published) {
+            // Everybody waits further ahead.
+            return;
+        }
+        for (Map.Entry<Long, Queue<Waiter>> entry : this.waiters.headMap(published, true).entrySet()) {
+            // A lower index may still be unpublished (writers publish in any
+            // order). Its own writer wakes those; waking them here would
+            // only make them register again, see above.
+            if (entry.getKey() != published && !isPublished(entry.getKey())) {
+                continue;
+            }
+            if (this.waiters.remove(entry.getKey(), entry.getValue())) {
+                Waiter waiter;
+                while ((waiter = entry.getValue().poll()) != null) {
+                    waiter.complete(null);
+                }
+            }
+        }
+    }
+
+    private Object publishedSegment(long index) {
+        if (index < 0 || index >= CAPACITY) {
+            return null;
+        }
+        AtomicReferenceArray<Object> chunk = this.top.get(topIndex(index));
+        return chunk == null ? null : chunk.get(chunkIndex(index));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<String> raw(Object segment) {
+        return (AtomicReferenceArray<String>) segment;
+    }
+
+    private AtomicReferenceArray<String> segmentFor(long index) {
+        // Writers only come here for slots they claimed, so the segment isn't
+        // sealed and can't be compressed yet.
+        int topIndex = topIndex(index);
+        AtomicReferenceArray<Object> chunk = this.top.get(topIndex);
+        if (chunk == null) {
+            this.top.compareAndSet(topIndex, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = this.top.get(topIndex);
+        }
+
+        int chunkIndex = chunkIndex(index);
+        Object segment = chunk.get(chunkIndex);
+        if (segment == null) {
+            chunk.compareAndSet(chunkIndex, null, new AtomicReferenceArray<String>(SEGMENT_SIZE));
+            segment = chunk.get(chunkIndex);
+        }
+        return raw(segment);
+    }
+
+    private static int topIndex(long index) {
+        return (int) (index >>> (SEGMENT_BITS + CHUNK_BITS));
+    }
+
+    private static int chunkIndex(long index) {
+        return (int) (index >>> SEGMENT_BITS) & (CHUNK_SIZE - 1);
+    }
+}
@@ -1,6 +1,8 @@
 package com.concurrency.producerconsumer;
 
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
@@ -10,6 +12,18 @@ import java.util.concurrent.locks.*;
 interface SharedQueue {
     void produce(String message);
     String consume();
+
+    /**
+     * Produces all messages, in order, waiting for space as needed. When the
+     * batch fits, this locks once and wakes the consumers once.
+     */
+    void produceAll(Collection<String> messages);
+
+    /**
+     * Waits for at least one message, then moves all available ones (up to
+     * {@code max}) into {@code into} at once. Returns how many it moved.
+     */
+    int drainTo(Collection<? super String> into, int max);
 }
 
 class SharedQueueImpl implements SharedQueue {
@@ -108,6 +122,63 @@ class SharedQueueImpl implements SharedQueue {
 
         return result;
     }
+
+    @Override
+    public void produceAll(Collection<String> messages) {
+        Iterator<String> iterator = messages.iterator();
+        this.lock.lock();
+
+        try {
+            while (iterator.hasNext()) {
+                while (this.size == this.capacity) {
+                    try {
+                        this.producerWaiting.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                // As much of the batch as fits, then one wake-up for all of it.
+                while (this.size < this.capacity && iterator.hasNext()) {
+                    this.que.addLast(iterator.next());
+                    this.size++;
+                }
+                this.consumerWaiting.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super String> into, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        this.lock.lock();
+
+        int drained = 0;
+        try {
+            while (this.size == 0) {
+                try {
+                    this.consumerWaiting.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            drained = Math.min(max, this.size);
+            for (int i = 0; i < drained; i++) {
+                into.add(this.que.pollFirst());
+            }
+            this.size -= drained;
+        } finally {
+            this.producerWaiting.signalAll();
+            this.lock.unlock();
+        }
+
+        return drained;
+    }
 }
 
 class Producer implements Runnable {
@@ -1,6 +1,8 @@
 package com.concurrency.producerconsumer;
 
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -53,6 +55,50 @@ class SharedQueuePrimitive implements SharedQueue {
         this.notifyAll();
         return result;
     }
+
+    @Override
+    public synchronized void produceAll(Collection<String> messages) {
+        Iterator<String> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            while (this.size == this.capacity) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            // As much of the batch as fits, then one wake-up for all of it.
+            while (this.size < this.capacity && iterator.hasNext()) {
+                this.que.addLast(iterator.next());
+                this.size++;
+            }
+            this.notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized int drainTo(Collection<? super String> into, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        while (this.size == 0) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        int drained = Math.min(max, this.size);
+        for (int i = 0; i < drained; i++) {
+            into.add(this.que.pollFirst());
+        }
+        this.size -= drained;
+
+        this.notifyAll();
+        return drained;
+    }
 }
 
 public class ProducerConsumerApplication_2 {
@@ -0,0 +1,579 @@
+package com.concurrency.producerconsumer;
+
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+class RingBufferSharedQueue implements SharedQueue {
+    /*
+        A bounded queue without locks and without allocating per message.
+
+        `SharedQueueImpl` and `SharedQueuePrimitive` put every message into
+        a LinkedList node (an allocation), take one lock for every produce
+        and consume (so producers and consumers always contend with each
+        other) and wake every waiting thread each time.
+
+        Here the messages go into a preallocated array whose size is a
+        power of two, used as a ring: message number n lives in slot
+        n & (capacity - 1). Two ever-growing counters say where we are:
+        `tail` is the number of the next message to produce, `head` the
+        next one to consume. Producers only touch `tail`, consumers only
+        `head`, so they don't contend unless the ring is full or empty.
+
+        False sharing: `head` and `tail` are written by different threads
+        all the time. If both were on the same 64-byte cache line, every
+        write would steal the line from the other core, although they never
+        touch the same variable. So each one is a `Sequence`, padded with
+        56 bytes on either side (in superclasses, because the JVM lays out
+        superclass fields first and doesn't reorder across classes).
+
+        Modes (chosen at construction; using a mode with more producers or
+        consumers than it allows corrupts the queue):
+            - SPSC, one producer and one consumer: nobody shares a counter,
+              so there's no CAS at all. The producer publishes a message
+              with a release store of `tail`, the consumer frees its slot
+              with a release store of `head`. Each side caches the other
+              side's counter and only re-reads it when the cache says the
+              ring is full (or empty).
+            - MPMC (Dmitry Vyukov's bounded queue): each slot has its own
+              sequence number. A slot is free for message n if its sequence
+              is n, and holds message n if it's n + 1. A producer claims
+              message number n with a CAS of `tail` from n to n + 1, writes
+              the message, and publishes it by setting the slot's sequence
+              to n + 1. A consumer claims with a CAS of `head` and frees the
+              slot for the next round by setting its sequence to
+              n + capacity. A claimed slot is owned by one thread only, so
+              the message itself needs no CAS.
+            - MPSC: producers as in MPMC, the single consumer needs no CAS
+              on `head`.
+
+        Waiting: a producer facing a full ring (or a consumer facing an
+        empty one) waits as its `WaitStrategy` says: by default it spins a
+        little, then yields, then parks for 1 to 10 microseconds at a time.
+        Latency-critical consumers on a dedicated core can busy-spin, the
+        rest can block until signalled. After every produce or consume the
+        strategy gets to signal the other side (only blocking does).
+
+        Batches: in SPSC mode `produceAll` writes as many messages as fit
+        and publishes them with a single store of `tail`, and `drainTo`
+        takes everything available and frees it with a single store of
+        `head`. In the other modes every message claims its slot with its
+        own CAS anyway, so a batch is only a loop (and `drainTo` stops
+        rather than waits once the ring is empty).
+     */
+    enum Mode {
+        SPSC,
+        MPSC,
+        MPMC
+    }
+
+    private static final VarHandle SLOT_SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static class SequenceLeftPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    static class SequenceValue extends SequenceLeftPadding {
+        protected volatile long value;
+        // SPSC only: the owner's last look at the other side's sequence.
+        // Written by the owner only, so it can share the line with `value`.
+        protected long cachedOther;
+    }
+
+    static final class Sequence extends SequenceValue {
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+            } catch (ReflectiveOperationException ex) {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+
+        protected long p9, p10, p11, p12, p13, p14, p15;
+
+        long getAcquire() {
+            return (long) VALUE.getAcquire(this);
+        }
+
+        void setRelease(long value) {
+            VALUE.setRelease(this, value);
+        }
+
+        boolean compareAndSet(long expected, long value) {
+            return VALUE.compareAndSet(this, expected, value);
+        }
+    }
+
+    private final Mode mode;
+    private final int mask;
+    private final String[] messages;
+    private final long[] slotSequences;
+    private final Sequence head;
+    private final Sequence tail;
+    private final WaitStrategy waitStrategy;
+    // Made once: a method reference per wait would allocate per message.
+    private final BooleanSupplier full;
+    private final BooleanSupplier empty;
+
+    public RingBufferSharedQueue(int capacity, Mode mode) {
+        this(capacity, mode, WaitStrategy.spinYieldPark(100, 100, 10_000));
+    }
+
+    public RingBufferSharedQueue(int capacity, Mode mode, WaitStrategy waitStrategy) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Expected a power of two >= 2 as capacity, got " + capacity);
+        }
+
+        this.mode = mode;
+        this.mask = capacity - 1;
+        this.messages = new String[capacity];
+        this.head = new Sequence();
+        this.tail = new Sequence();
+        this.waitStrategy = waitStrategy;
+        this.full = this::isFull;
+        this.empty = this::isEmpty;
+        if (mode == Mode.SPSC) {
+            this.slotSequences = null;
+        } else {
+            this.slotSequences = new long[capacity];
+            for (int i = 0; i < capacity; i++) {
+                this.slotSequences[i] = i;
+            }
+        }
+    }
+
+    @Override
+    public void produce(String message) {
+        checkMessage(message);
+        int attempt = 0;
+        while (!offer(message)) {
+            attempt = this.waitStrategy.idle(attempt, this.full);
+        }
+        this.waitStrategy.signal();
+    }
+
+    @Override
+    public String consume() {
+        int attempt = 0;
+        String message;
+        while ((message = poll()) == null) {
+            attempt = this.waitStrategy.idle(attempt, this.empty);
+        }
+        this.waitStrategy.signal();
+        return message;
+    }
+
+    @Override
+    public void produceAll(Collection<String> messages) {
+        if (this.mode != Mode.SPSC) {
+            // Every message needs its own slot claim anyway.
+            for (String message : messages) {
+                produce(message);
+            }
+            return;
+        }
+
+        // SPSC: write as many as fit, then publish them all with one store.
+        Iterator<String> iterator = messages.iterator();
+        int attempt = 0;
+        while (iterator.hasNext()) {
+            long tail = this.tail.value;
+            long free = this.mask + 1 - (tail - this.tail.cachedOther);
+            if (free == 0) {
+                this.tail.cachedOther = this.head.getAcquire();
+                attempt = this.waitStrategy.idle(attempt, this.full);
+                continue;
+            }
+
+            long end = tail;
+            while (end - tail < free && iterator.hasNext()) {
+                String message = iterator.next();
+                checkMessage(message);
+                this.messages[(int) end & this.mask] = message;
+                end++;
+            }
+            this.tail.setRelease(end);
+            this.waitStrategy.signal();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super String> into, int max) {
+        if (max <= 0) {
+            return 0;
+        }
+        if (this.mode != Mode.SPSC) {
+            into.add(consume());
+            int drained = 1;
+            String message;
+            while (drained < max && (message = poll()) != null) {
+                into.add(message);
+                drained++;
+            }
+            this.waitStrategy.signal();
+            return drained;
+        }
+
+        // SPSC: take everything available, then free it all with one store.
+        long head = this.head.value;
+        int attempt = 0;
+        while (head >= (this.head.cachedOther = this.tail.getAcquire())) {
+            attempt = this.waitStrategy.idle(attempt, this.empty);
+        }
+        long end = Math.min(this.head.cachedOther, head + max);
+        for (long position = head; position < end; position++) {
+            int slot = (int) position & this.mask;
+            into.add(this.messages[slot]);
+            this.messages[slot] = null;
+        }
+        this.head.setRelease(end);
+        this.waitStrategy.signal();
+        return (int) (end - head);
+    }
+
+    private boolean offer(String message) {
+        if (this.mode == Mode.SPSC) {
+            long tail = this.tail.value;
+            if (tail - this.tail.cachedOther > this.mask) {
+                this.tail.cachedOther = this.head.getAcquire();
+                if (tail - this.tail.cachedOther > this.mask) {
+                    return false;
+                }
+            }
+            this.messages[(int) tail & this.mask] = message;
+            this.tail.setRelease(tail + 1);
+            return true;
+        }
+
+        while (true) {
+            long tail = this.tail.getAcquire();
+            int slot = (int) tail & this.mask;
+            long sequence = (long) SLOT_SEQUENCE.getAcquire(this.slotSequences, slot);
+            if (sequence == tail) {
+                if (this.tail.compareAndSet(tail, tail + 1)) {
+                    this.messages[slot] = message;
+                    SLOT_SEQUENCE.setRelease(this.slotSequences, slot, tail + 1);
+                    return true;
+                }
+                // Another producer claimed it, try the next one right away.
+            } else if (sequence < tail) {
+                // The slot still holds the message of the previous round: full.
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The next message, or null if there is none right now.
+     */
+    private String poll() {
+        if (this.mode == Mode.SPSC) {
+            long head = this.head.value;
+            if (head >= this.head.cachedOther) {
+                this.head.cachedOther = this.tail.getAcquire();
+                if (head >= this.head.cachedOther) {
+                    return null;
+                }
+            }
+            int slot = (int) head & this.mask;
+            String message = this.messages[slot];
+            this.messages[slot] = null;
+            this.head.setRelease(head + 1);
+            return message;
+        }
+
+        while (true) {
+            long head = this.head.getAcquire();
+            int slot = (int) head & this.mask;
+            long sequence = (long) SLOT_SEQUENCE.getAcquire(this.slotSequences, slot);
+            if (sequence == head + 1) {
+                if (this.mode == Mode.MPSC) {
+                    this.head.setRelease(head + 1);
+                } else if (!this.head.compareAndSet(head, head + 1)) {
+                    continue;
+                }
+                String message = this.messages[slot];
+                this.messages[slot] = null;
+                SLOT_SEQUENCE.setRelease(this.slotSequences, slot, head + this.mask + 1);
+                return message;
+            } else if (sequence < head + 1) {
+                // Not produced (or not published) yet: empty.
+                return null;
+            }
+        }
+    }
+
+    private static void checkMessage(String message) {
+        // null is what `poll()` returns for "empty".
+        if (message == null) {
+            throw new IllegalArgumentException("message must not be null");
+        }
+    }
+
+    private boolean isEmpty() {
+        // By the counters. In the MP modes a claimed slot may not be
+        // published yet; a waiter then returns and looks again.
+        return this.head.getAcquire() >= this.tail.getAcquire();
+    }
+
+    private boolean isFull() {
+        return this.tail.getAcquire() - this.head.getAcquire() > this.mask;
+    }
+}
+
+public class ProducerConsumerApplication_3 {
+
+    private static void test1() {
+        // Messages per second and bytes allocated per message, for the lock
+        // based queues and the ring buffer in each mode. The messages are
+        // made up front, so the queue is all that allocates. The lengths of
+        // the consumed messages add up to the expected total only if none
+        // got lost or duplicated.
+        int messagesPerProducer = 2_000_000;
+        int capacity = 1024;
+        System.out.println(benchmark("SharedQueueImpl 1P1C", new SharedQueueImpl(capacity), 1, 1, messagesPerProducer));
+        System.out.println(benchmark("SharedQueuePrimitive 1P1C", new SharedQueuePrimitive(capacity), 1, 1, messagesPerProducer));
+        System.out.println(benchmark("Ring SPSC 1P1C", new RingBufferSharedQueue(capacity, RingBufferSharedQueue.Mode.SPSC), 1, 1, messagesPerProducer));
+        System.out.println(benchmark("Ring MPSC 1P1C", new RingBufferSharedQueue(capacity, RingBufferSharedQueue.Mode.MPSC), 1, 1, messagesPerProducer));
+        System.out.println(benchmark("Ring MPMC 1P1C", new RingBufferSharedQueue(capacity, RingBufferSharedQueue.Mode.MPMC), 1, 1, messagesPerProducer));
+        System.out.println(benchmark("SharedQueueImpl 3P1C", new SharedQueueImpl(capacity), 3, 1, messagesPerProducer));
+        System.out.println(benchmark("Ring MPSC 3P1C", new RingBufferSharedQueue(capacity, RingBufferSharedQueue.Mode.MPSC), 3, 1, messagesPerProducer));
+        System.out.println(benchmark("SharedQueueImpl 2P2C", new SharedQueueImpl(capacity), 2, 2, messagesPerProducer));
+        System.out.println(benchmark("SharedQueuePrimitive 2P2C", new SharedQueuePrimitive(capacity), 2, 2, messagesPerProducer));
+        System.out.println(benchmark("Ring MPMC 2P2C", new RingBufferSharedQueue(capacity, RingBufferSharedQueue.Mode.MPMC), 2, 2, messagesPerProducer));
+    }
+
+    private static void test3() {
+        // Single messages vs. batches of 64. First the bare cost per message
+        // with one thread that fills and empties the queue in turns, so that
+        // no thread switch or wake-up gets into the numbers; then with a real
+        // producer and consumer.
+        String[] messages = new String[64];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = "message " + i;
+        }
+        List<String> batch = List.of(messages);
+        List<String> drained = new ArrayList<>(messages.length);
+        int rounds = 200_000;
+        String[] names = {"SharedQueueImpl", "SharedQueuePrimitive", "Ring SPSC", "Ring MPMC"};
+        for (int run = 0; run < 2; run++) {
+            SharedQueue[] sharedQueues = {
+                    new SharedQueueImpl(1024),
+                    new SharedQueuePrimitive(1024),
+                    new RingBufferSharedQueue(1024, RingBufferSharedQueue.Mode.SPSC),
+                    new RingBufferSharedQueue(1024, RingBufferSharedQueue.Mode.MPMC)};
+            for (int q = 0; q < sharedQueues.length; q++) {
+                SharedQueue sharedQueue = sharedQueues[q];
+                long start = System.nanoTime();
+                for (int round = 0; round < rounds; round++) {
+                    for (String message : messages) {
+                        sharedQueue.produce(message);
+                    }
+                    for (int i = 0; i < messages.length; i++) {
+                        sharedQueue.consume();
+                    }
+                }
+                long single = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int round = 0; round < rounds; round++) {
+                    sharedQueue.produceAll(batch);
+                    sharedQueue.drainTo(drained, messages.length);
+                    drained.clear();
+                }
+                long batched = System.nanoTime() - start;
+                if (run > 0) {
+                    System.out.printf("%-22s single %6.1f ns/message, batch of 64 %6.1f ns/message%n",
+                            names[q],
+                            (double) single / rounds / messages.length,
+                            (double) batched / rounds / messages.length);
+                }
+            }
+        }
+
+        int messagesPerProducer = 2_000_000;
+        for (int batchSize : new int[] {1, 64}) {
+            System.out.println(benchmark("SharedQueueImpl 2P2C batch " + batchSize,
+                    new SharedQueueImpl(1024), 2, 2, messagesPerProducer, batchSize));
+        }
+    }
+
+    private static void test4() {
+        // Hand-off latency and consumer CPU per wait strategy: a producer
+        // sends a message every ~50us, the consumer measures how long each
+        // one took to arrive. SharedQueueImpl (await/signalAll) for
+        // comparison.
+        System.out.println(handOff("SharedQueueImpl", new SharedQueueImpl(1024)));
+        System.out.println(handOff("busySpin", new RingBufferSharedQueue(1024,
+                RingBufferSharedQueue.Mode.SPSC, WaitStrategy.busySpin())));
+        System.out.println(handOff("spinYield", new RingBufferSharedQueue(1024,
+                RingBufferSharedQueue.Mode.SPSC, WaitStrategy.spinYield(100))));
+        System.out.println(handOff("spinYieldPark", new RingBufferSharedQueue(1024,
+                RingBufferSharedQueue.Mode.SPSC, WaitStrategy.spinYieldPark(100, 100, 100_000))));
+        System.out.println(handOff("blocking", new RingBufferSharedQueue(1024,
+                RingBufferSharedQueue.Mode.SPSC, WaitStrategy.blocking())));
+    }
+
+    static String handOff(String name, SharedQueue sharedQueue) {
+        int messages = 10_000;
+        long[] sentAt = new long[messages];
+        long[] latencies = new long[messages];
+        long[] consumerCpu = new long[1];
+
+        long start = System.nanoTime();
+        try (ExecutorService executorService = Executors.newFixedThreadPool(2)) {
+            executorService.submit(() -> {
+                long cpu = cpuNanos();
+                for (int i = 0; i < messages; i++) {
+                    sharedQueue.consume();
+                    latencies[i] = System.nanoTime() - sentAt[i];
+                }
+                consumerCpu[0] = cpuNanos() - cpu;
+            });
+            executorService.submit(() -> {
+                for (int i = 0; i < messages; i++) {
+                    LockSupport.parkNanos(50_000);
+                    sentAt[i] = System.nanoTime();
+                    sharedQueue.produce("message");
+                }
+            });
+            executorService.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        return String.format("%-16s latency p50 %,8.1f us, p99 %,9.1f us, max %,9.1f us; consumer CPU %5.1f%%",
+                name, latencies[messages / 2] / 1e3, latencies[messages * 99 / 100] / 1e3,
+                latencies[messages - 1] / 1e3, consumerCpu[0] * 100.0 / nanos);
+    }
+
+    private static long cpuNanos() {
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+
+    static String benchmark(String name, SharedQueue sharedQueue, int producers, int consumers, int messagesPerProducer) {
+        return benchmark(name, sharedQueue, producers, consumers, messagesPerProducer, 1);
+    }
+
+    /**
+     * With {@code batchSize > 1}, producers use `produceAll` and consumers
+     * `drainTo` with batches of that size.
+     */
+    static String benchmark(String name, SharedQueue sharedQueue, int producers, int consumers,
+                            int messagesPerProducer, int batchSize) {
+        long total = (long) producers * messagesPerProducer;
+        String[] messages = new String[1024];
+        long expectedLength = 0;
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = "message " + i;
+        }
+        for (int i = 0; i < messagesPerProducer; i++) {
+            expectedLength += (long) producers * messages[i & (messages.length - 1)].length();
+        }
+
+        AtomicLong allocatedBytes = new AtomicLong();
+        AtomicLong consumedLength = new AtomicLong();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            tasks.add(() -> {
+                List<List<String>> batches = new ArrayList<>();
+                for (int from = 0; batchSize > 1 && from < messages.length; from += batchSize) {
+                    batches.add(List.of(messages).subList(from, Math.min(messages.length, from + batchSize)));
+                }
+                long allocated = allocatedBytes();
+                int i = 0;
+                while (i < messagesPerProducer) {
+                    if (batchSize > 1 && (i & (messages.length - 1)) % batchSize == 0
+                            && messagesPerProducer - i >= batchSize) {
+                        List<String> batch = batches.get((i & (messages.length - 1)) / batchSize);
+                        sharedQueue.produceAll(batch);
+                        i += batch.size();
+                    } else {
+                        sharedQueue.produce(messages[i & (messages.length - 1)]);
+                        i++;
+                    }
+                }
+                allocatedBytes.addAndGet(allocatedBytes() - allocated);
+            });
+        }
+        for (int c = 0; c < consumers; c++) {
+            long share = total / consumers + (c < total % consumers ? 1 : 0);
+            tasks.add(() -> {
+                List<String> batch = new ArrayList<>(batchSize);
+                long allocated = allocatedBytes();
+                long length = 0;
+                for (long i = 0; i < share; ) {
+                    if (batchSize > 1) {
+                        // Never more than our share, or another consumer
+                        // would wait for messages forever.
+                        i += sharedQueue.drainTo(batch, (int) Math.min(batchSize, share - i));
+                        for (String message : batch) {
+                            length += message.length();
+                        }
+                        batch.clear();
+                    } else {
+                        length += sharedQueue.consume().length();
+                        i++;
+                    }
+                }
+                consumedLength.addAndGet(length);
+                allocatedBytes.addAndGet(allocatedBytes() - allocated);
+            });
+        }
+
+        long start = System.nanoTime();
+        try (ExecutorService executorService = Executors.newFixedThreadPool(producers + consumers)) {
+            tasks.forEach(executorService::submit);
+            executorService.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+        return String.format("%-26s %,12.0f messages/s, %6.2f bytes/message%s",
+                name, total / (nanos / 1e9), (double) allocatedBytes.get() / total,
+                consumedLength.get() == expectedLength ? "" : ", LOST OR DUPLICATED MESSAGES");
+    }
+
+    private static long allocatedBytes() {
+        return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static void test2() {
+        int maxCapacity = 16;
+        SharedQueue sharedQueue = new RingBufferSharedQueue(maxCapacity, RingBufferSharedQueue.Mode.MPMC);
+
+        Thread producerThread = new Thread(new Producer(sharedQueue));
+        Thread consumerThread1 = new Thread(new Consumer(sharedQueue));
+        Thread consumerThread2 = new Thread(new Consumer(sharedQueue));
+        Thread consumerThread3 = new Thread(new Consumer(sharedQueue));
+
+        try (ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+            executorService.submit(producerThread);
+            executorService.submit(consumerThread1);
+            executorService.submit(consumerThread2);
+            executorService.submit(consumerThread3);
+
+            executorService.shutdown();
+        }
+    }
+
+    public static void main(String[] args) {
+        test1();
+        test3();
+        test4();
+        test2();
+    }
+}
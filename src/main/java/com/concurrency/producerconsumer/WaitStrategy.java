@@ -0,0 +1,179 @@
+package com.concurrency.producerconsumer;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+interface WaitStrategy {
+    /*
+        How a thread waits for a lock-free queue to become non-empty (or
+        non-full), see `RingBufferSharedQueue`.
+
+        It's a trade between wake-up latency and CPU:
+            - busySpin: re-checks in a tight loop. Reacts within ~100ns,
+              but burns a whole core while waiting, also when there's
+              nothing to do for hours. Only for threads that have a core
+              of their own.
+            - spinYield: spins a little, then `Thread.yield()`s between
+              checks. Still uses the CPU when idle, but hands it to other
+              runnable threads on the same core.
+            - spinYieldPark: spins, yields, then parks for a time that
+              doubles up to a maximum. Idle costs next to no CPU, but a
+              message that arrives during a park waits for the park to end.
+            - blocking: parks on a condition until the other side signals
+              it, like `SharedQueueImpl`. No CPU when idle; each hand-off
+              costs the wake-up of a parked thread (several microseconds),
+              and every produce and consume pays for checking whether
+              anybody needs to be signalled.
+
+        `idle()` is called by a thread each time it finds nothing to do,
+        with the number of times in a row it did so; `signal()` by the other
+        side after every change it could be waiting for.
+     */
+
+    /**
+     * Waits a bit, or until {@code stillWaiting} turns false. Returns the
+     * next attempt number.
+     */
+    int idle(int attempt, BooleanSupplier stillWaiting);
+
+    /**
+     * Called after a message was produced or consumed.
+     */
+    void signal();
+
+    static WaitStrategy busySpin() {
+        return new BusySpin();
+    }
+
+    static WaitStrategy spinYield(int spins) {
+        return new SpinYield(spins);
+    }
+
+    static WaitStrategy spinYieldPark(int spins, int yields, long maxParkNanos) {
+        return new SpinYieldPark(spins, yields, maxParkNanos);
+    }
+
+    static WaitStrategy blocking() {
+        return new Blocking();
+    }
+
+    final class BusySpin implements WaitStrategy {
+        @Override
+        public int idle(int attempt, BooleanSupplier stillWaiting) {
+            Thread.onSpinWait();
+            return attempt + 1;
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    final class SpinYield implements WaitStrategy {
+        private final int spins;
+
+        SpinYield(int spins) {
+            this.spins = spins;
+        }
+
+        @Override
+        public int idle(int attempt, BooleanSupplier stillWaiting) {
+            if (attempt < this.spins) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            return attempt + 1;
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    final class SpinYieldPark implements WaitStrategy {
+        private static final long MIN_PARK_NANOS = 1_000;
+
+        private final int spins;
+        private final int yields;
+        private final long maxParkNanos;
+
+        SpinYieldPark(int spins, int yields, long maxParkNanos) {
+            this.spins = spins;
+            this.yields = yields;
+            this.maxParkNanos = maxParkNanos;
+        }
+
+        @Override
+        public int idle(int attempt, BooleanSupplier stillWaiting) {
+            if (attempt < this.spins) {
+                Thread.onSpinWait();
+            } else if (attempt < this.spins + this.yields) {
+                Thread.yield();
+            } else {
+                // 1us, 2us, 4us, ... up to the maximum.
+                int parks = Math.min(attempt - this.spins - this.yields, 30);
+                LockSupport.parkNanos(Math.min(this.maxParkNanos, MIN_PARK_NANOS << parks));
+                if (Thread.interrupted()) {
+                    throw new RuntimeException(new InterruptedException());
+                }
+            }
+            return attempt + 1;
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    final class Blocking implements WaitStrategy {
+        /*
+            A waiter registers in `waiters` and then re-checks under the lock;
+            a signaller has already published its change and then reads
+            `waiters`. The full fence in `signal()` keeps that read from
+            moving before the publishing store, so either the waiter sees the
+            change or the signaller sees the waiter, and a wake-up can't get
+            lost. With nobody waiting, `signal()` is the fence plus one read.
+         */
+        private final Lock lock = new ReentrantLock();
+        private final Condition changed = this.lock.newCondition();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public int idle(int attempt, BooleanSupplier stillWaiting) {
+            this.lock.lock();
+
+            try {
+                this.waiters.incrementAndGet();
+                while (stillWaiting.getAsBoolean()) {
+                    this.changed.await();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                this.waiters.decrementAndGet();
+                this.lock.unlock();
+            }
+            return attempt + 1;
+        }
+
+        @Override
+        public void signal() {
+            VarHandle.fullFence();
+            if (this.waiters.get() > 0) {
+                this.lock.lock();
+
+                try {
+                    this.changed.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,16 @@
 package com.concurrency.ratelimiter;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class APIRateLimiter {
     /*
@@ -16,84 +25,126 @@ public class APIRateLimiter {
 
     static class APICaller implements Runnable {
         /*
-            `Semaphore` is used when multiple threads upto a specific number should
-            be allowed to access a common set of resources. `Semaphore` is used as
-            a resource guard or counter. There are some good use cases for `Semaphore` like:
-                1. Controlling the number of threads accessing resource pools like
-                database connection pool.
-                2. Rate limiting api calls.
-                3. Controlling the maximum number of tasks or jobs that a system can handle.
-
-            `Semaphore` should not be used in a critical section which directly performs
-            data manipulation like increasing/decreasing counter, modifying data structure,
-            etc. If multiple threads access those critical section of code through Semaphore,
-            they will corrupt the data. So, for such kinds of use cases, other locks are better
-            suited. See other examples.
-
-            A semaphore does not keep track of which thread has acquired it. So, there is
-            no ownership model. Any thread can acquire and any thread can release.
-
-            A semaphore with permit value 1 is called Mutex. In our example, we use
-            Counting Semaphore, which is initialized to permit more than 1.
-
-            If there is no permit available, calling threads wait on the semaphore.
-            Once a permit is available, semaphore singals waiting threads for its
-            availability, and accordingly, other threads either proceed further or
-            continue waiting.
-
-            Semaphore is Non-Reentrant in nature. So if the same thread wants to
-            access two nested methods which are protected by the same semaphore,
-            the semaphore will be acquired twice.
+            The caller only talks to the `RateLimiter` interface, so the very
+            same caller can be limited by concurrency (`SemaphoreRateLimiter`)
+            or by rate (`TokenBucketRateLimiter`, `SlidingWindowRateLimiter`).
          */
-        private Semaphore semaphore;
+        private RateLimiter rateLimiter;
         private ExternalAPIClient externalAPIClient;
 
-        public APICaller(Semaphore semaphore, ExternalAPIClient externalAPIClient) {
-            this.semaphore = semaphore;
+        public APICaller(RateLimiter rateLimiter, ExternalAPIClient externalAPIClient) {
+            this.rateLimiter = rateLimiter;
             this.externalAPIClient = externalAPIClient;
         }
 
         @Override
         public void run() {
+            boolean acquired = false;
+            long callNanos = -1;
             try {
-                this.semaphore.acquire();
-                System.out.println("Semaphore acquired by thread = "
-                        + Thread.currentThread().getName()
-                        + ". Available permits = " + this.semaphore.availablePermits());
+                this.rateLimiter.acquire();
+                acquired = true;
+                long start = System.nanoTime();
                 this.externalAPIClient.call();
+                callNanos = System.nanoTime() - start;
 
                 Thread.sleep(5000);
 
             } catch (InterruptedException e) {
                 e.printStackTrace();
             } finally {
-                System.out.println(Thread.currentThread().getName() + " releasing semaphore");
-                this.semaphore.release();
+                // Interrupted in acquire(): there's no permit to give back.
+                if (callNanos >= 0) {
+                    this.rateLimiter.release(callNanos);
+                } else if (acquired) {
+                    this.rateLimiter.release();
+                }
             }
         }
     }
 
-    private Semaphore semaphore;
+    private static final Executor VIRTUAL_THREADS = command -> Thread.ofVirtual().start(command);
+
+    private InstrumentedRateLimiter rateLimiter;
     private ExternalAPIClient externalAPIClient;
+    private final List<Thread> callers;
 
     public APIRateLimiter(int maxLimit) {
-        this.semaphore = new Semaphore(maxLimit);
-        this.externalAPIClient = new ExternalAPIClient() {
+        this(new SemaphoreRateLimiter(maxLimit));
+    }
+
+    public APIRateLimiter(RateLimiter rateLimiter) {
+        this(rateLimiter, new ExternalAPIClient() {
             @Override
             public void call() {
 
             }
-        };
+        });
+    }
+
+    public APIRateLimiter(RateLimiter rateLimiter, ExternalAPIClient externalAPIClient) {
+        this.rateLimiter = new InstrumentedRateLimiter(rateLimiter);
+        this.externalAPIClient = externalAPIClient;
+        this.callers = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Counters and latency percentiles of every call made so far, e.g. for
+     * a monitoring endpoint to scrape.
+     */
+    public RateLimiterMetrics.Snapshot metrics() {
+        return this.rateLimiter.snapshot();
     }
 
     public void callAPI(int threads) {
         for (int i = 0; i < threads; i++) {
-            Thread thread = new Thread(new APICaller(this.semaphore, this.externalAPIClient));
+            Thread thread = new Thread(new APICaller(this.rateLimiter, this.externalAPIClient));
             thread.start();
+            this.callers.add(thread);
             sleep(new Random().nextInt(500));
         }
     }
 
+    /**
+     * Same as {@link #callAPI(int)}, but every caller runs on its own virtual
+     * thread. A virtual thread blocked in `acquire()` or `sleep()` unmounts
+     * from its carrier, so thousands of waiting callers need only as many OS
+     * threads as there are cores.
+     */
+    public void callAPIOnVirtualThreads(int calls) {
+        for (int i = 0; i < calls; i++) {
+            this.callers.add(Thread.ofVirtual()
+                    .name("virtual-api-caller-" + i)
+                    .start(new APICaller(this.rateLimiter, this.externalAPIClient)));
+        }
+    }
+
+    /**
+     * Waits until every caller started by {@link #callAPI(int)} or
+     * {@link #callAPIOnVirtualThreads(int)} is done.
+     */
+    public void awaitCalls() throws InterruptedException {
+        synchronized (this.callers) {
+            for (Thread caller : this.callers) {
+                caller.join();
+            }
+            this.callers.clear();
+        }
+    }
+
+    /**
+     * Queues a call without blocking the caller. No thread is tied up while
+     * the call waits for its permit (with `AsyncSemaphoreRateLimiter`);
+     * the call itself runs on a virtual thread once the permit is granted.
+     */
+    public CompletableFuture<Void> callAPIAsync() {
+        return this.rateLimiter.acquireAsync().thenCompose(permit -> {
+            long start = System.nanoTime();
+            return CompletableFuture.runAsync(this.externalAPIClient::call, VIRTUAL_THREADS)
+                    .whenComplete((result, error) -> this.rateLimiter.release(System.nanoTime() - start));
+        });
+    }
+
     private void sleep(int millis) {
         try {
             Thread.sleep(millis);
@@ -105,9 +156,217 @@ public class APIRateLimiter {
     private static void test1() {
         APIRateLimiter rateLimiter = new APIRateLimiter(10);
         rateLimiter.callAPI(100);
+        try {
+            rateLimiter.awaitCalls();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println(rateLimiter.metrics());
+    }
+
+    private static void test2() {
+        // 2 calls per second, bursts of up to 5 calls.
+        APIRateLimiter rateLimiter = new APIRateLimiter(new TokenBucketRateLimiter(2, 5));
+        rateLimiter.callAPI(20);
+    }
+
+    private static void test3() {
+        // At most 10 calls in any sliding second.
+        APIRateLimiter rateLimiter = new APIRateLimiter(new SlidingWindowRateLimiter(10, 1, TimeUnit.SECONDS));
+        rateLimiter.callAPI(20);
+    }
+
+    private static void measureTryAcquire(String name, RateLimiter rateLimiter, int threads) {
+        int attemptsPerThread = 2_000_000;
+        LongAdder granted = new LongAdder();
+        long start = System.nanoTime();
+
+        try (ExecutorService executorService = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                executorService.submit(() -> {
+                    for (int i = 0; i < attemptsPerThread; i++) {
+                        if (rateLimiter.tryAcquire()) {
+                            granted.increment();
+                            rateLimiter.release();
+                        }
+                    }
+                });
+            }
+
+            executorService.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.printf("%-26s threads = %2d: %,.0f tryAcquire/sec, %,d granted%n",
+                name, threads, threads * (double) attemptsPerThread / seconds, granted.sum());
+    }
+
+    private static void test4() {
+        // Cost of tryAcquire() per strategy as the number of threads grows.
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores * 2; threads *= 2) {
+            measureTryAcquire("SemaphoreRateLimiter", new SemaphoreRateLimiter(cores), threads);
+            measureTryAcquire("TokenBucketRateLimiter", new TokenBucketRateLimiter(1_000_000, 1_000), threads);
+            measureTryAcquire("SlidingWindowRateLimiter",
+                    new SlidingWindowRateLimiter(1_000_000, 1, TimeUnit.SECONDS), threads);
+        }
+    }
+
+    private static void test5() {
+        // 1000 callers waiting for 100 permits, each one on a virtual thread.
+        APIRateLimiter rateLimiter = new APIRateLimiter(100);
+        rateLimiter.callAPIOnVirtualThreads(1_000);
+    }
+
+    private static void test6() {
+        // 100k calls in flight at once, 1000 permits, each call takes 50ms.
+        int calls = 100_000;
+        AsyncSemaphoreRateLimiter limiter = new AsyncSemaphoreRateLimiter(1_000);
+        APIRateLimiter rateLimiter = new APIRateLimiter(limiter, () -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] inFlight = new CompletableFuture<?>[calls];
+        for (int i = 0; i < calls; i++) {
+            inFlight[i] = rateLimiter.callAPIAsync();
+        }
+        System.out.println("Queued " + calls + " calls, waiting for a permit = " + limiter.queueLength());
+
+        CompletableFuture.allOf(inFlight).join();
+        System.out.printf("All %,d calls done in %,d ms, peak platform threads = %d%n",
+                calls, (System.nanoTime() - start) / 1_000_000,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        System.out.println(rateLimiter.metrics());
+    }
+
+    private static void test7() {
+        // Per-tenant limits: acquire latency as the number of tenants grows.
+        KeyedRateLimiter<String> limiter =
+                new KeyedRateLimiter<>(10, 10, 2_000_000, 1, TimeUnit.MINUTES);
+        int lookups = 1_000_000;
+
+        for (int tenants = 1_000; tenants <= 1_000_000; tenants *= 10) {
+            String[] keys = new String[tenants];
+            for (int i = 0; i < tenants; i++) {
+                keys[i] = "tenant-" + i;
+                limiter.tryAcquire(keys[i]);
+            }
+
+            Random random = new Random();
+            long granted = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                granted += limiter.tryAcquire(keys[random.nextInt(tenants)]) ? 1 : 0;
+            }
+            long nanosPerAcquire = (System.nanoTime() - start) / lookups;
+
+            System.out.printf("tenants = %,9d, keys held = %,9d: %d ns per tryAcquire, %,d granted%n",
+                    tenants, limiter.size(), nanosPerAcquire, granted);
+        }
+
+        // Every tenant gets its own APICaller limit through a per-key view.
+        for (int i = 0; i < 3; i++) {
+            new APIRateLimiter(limiter.forKey("tenant-" + i)).callAPI(3);
+        }
+    }
+
+    private static void runLoad(String name, RateLimiter rateLimiter, ExternalAPIClient upstream,
+                                int clients, long millis) {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        try (ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                executorService.submit(() -> {
+                    List<Long> mine = new ArrayList<>();
+                    while (System.nanoTime() < deadline) {
+                        try {
+                            rateLimiter.acquire();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        long start = System.nanoTime();
+                        upstream.call();
+                        long rtt = System.nanoTime() - start;
+                        rateLimiter.release(rtt);
+                        mine.add(rtt);
+                    }
+                    latencies.addAll(mine);
+                });
+            }
+
+            executorService.shutdown();
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.printf("%-30s %,6.0f calls/sec, upstream RTT p50 = %3d ms, p99 = %4d ms%s%n", name,
+                sorted.size() * 1000.0 / millis,
+                TimeUnit.NANOSECONDS.toMillis(sorted.get(sorted.size() / 2)),
+                TimeUnit.NANOSECONDS.toMillis(sorted.get((int) (sorted.size() * 0.99))),
+                rateLimiter instanceof AdaptiveConcurrencyLimiter adaptive
+                        ? ", limit = " + adaptive.getLimit() : "");
+    }
+
+    private static void test8() {
+        // 1000 clients against an upstream that serves 50 calls at a time in
+        // 20ms each (2500 calls/sec at most), then loses 60% of its capacity.
+        int clients = 1_000;
+        SimulatedUpstream fixedUpstream = new SimulatedUpstream(50, 20);
+        SimulatedUpstream adaptiveUpstream = new SimulatedUpstream(50, 20);
+        RateLimiter fixed = new SemaphoreRateLimiter(500);
+        AdaptiveConcurrencyLimiter adaptive = new AdaptiveConcurrencyLimiter(10, 1, 500);
+
+        runLoad("fixed limit 500", fixed, fixedUpstream, clients, 5_000);
+        runLoad("adaptive", adaptive, adaptiveUpstream, clients, 5_000);
+
+        fixedUpstream.setCapacity(20);
+        adaptiveUpstream.setCapacity(20);
+        runLoad("fixed limit 500, degraded", fixed, fixedUpstream, clients, 5_000);
+        runLoad("adaptive, degraded", adaptive, adaptiveUpstream, clients, 5_000);
+    }
+
+    private static double nanosPerAcquire(RateLimiter rateLimiter, int iterations) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            rateLimiter.acquire();
+            rateLimiter.release(i);
+        }
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    private static void test9() {
+        // What the instrumentation adds to an uncontended acquire + release.
+        int iterations = 5_000_000;
+        RateLimiter raw = new SemaphoreRateLimiter(1);
+        InstrumentedRateLimiter instrumented = new InstrumentedRateLimiter(new SemaphoreRateLimiter(1));
+        try {
+            for (int round = 0; round < 5; round++) {
+                double rawNanos = nanosPerAcquire(raw, iterations);
+                double instrumentedNanos = nanosPerAcquire(instrumented, iterations);
+                System.out.printf("raw = %.1f ns, instrumented = %.1f ns, overhead = %.1f ns per acquire%n",
+                        rawNanos, instrumentedNanos, instrumentedNanos - rawNanos);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println(instrumented.snapshot());
     }
 
     public static void main(String[] args) {
         test1();
+        test2();
+        test3();
+        test4();
+        test5();
+        test6();
+        test7();
+        test8();
+        test9();
     }
 }
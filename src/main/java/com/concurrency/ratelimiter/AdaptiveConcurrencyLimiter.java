@@ -0,0 +1,161 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+class AdaptiveConcurrencyLimiter implements RateLimiter {
+    /*
+        A concurrency limiter that finds its own limit from the latency of
+        the calls it lets through.
+
+        Why latency: an upstream that can serve N calls at a time answers in
+        its normal time as long as we send it <= N concurrent calls. Above N,
+        the extra calls queue up inside the upstream. Throughput doesn't get
+        any better, only the round-trip time (RTT) grows. So:
+            RTT close to the no-load RTT  -> upstream has spare room, grow
+            RTT well above the no-load RTT -> we're queueing, shrink
+
+        Gradient algorithm, evaluated once per sample window:
+            gradient = clamp(tolerance * minRtt / averageRtt, 0.5, 1.0)
+            newLimit = limit * gradient + sqrt(limit)
+            limit    = limit * (1 - smoothing) + newLimit * smoothing
+        With no queueing the gradient is 1 and the limit grows by a bit
+        (sqrt(limit) is the small queue we allow to keep the upstream busy).
+        The more the RTT grows, the harder the limit gets cut; it can at most
+        be halved per window. `minRtt` is the lowest RTT seen recently. It's
+        re-learned every `MIN_RTT_RESET_WINDOWS` windows, otherwise a
+        permanently slower upstream would keep pushing the limit down.
+
+        The limit is enforced by an `AsyncSemaphoreRateLimiter` whose permit
+        count is adjusted by the difference. Acquiring is exactly as cheap and
+        lock-free as there. The samples are recorded with `LongAdder`s and
+        evaluated by whichever releasing thread wins the compareAndSet that
+        closes the window, so there's no lock and no background thread.
+     */
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final int MIN_RTT_RESET_WINDOWS = 50;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.5;
+
+    private final AsyncSemaphoreRateLimiter permits;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private volatile double limit;
+    private final AtomicInteger appliedLimit;
+    private final AtomicLong windowStart;
+    private final LongAdder windowRttSum;
+    private final LongAdder windowSamples;
+    private final AtomicLong minRtt;
+    private final AtomicLong windowMinRtt;
+    private final AtomicInteger windowsSinceMinRttReset;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Expected 0 < minLimit <= initialLimit <= maxLimit");
+        }
+
+        this.permits = new AsyncSemaphoreRateLimiter(initialLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.appliedLimit = new AtomicInteger(initialLimit);
+        this.windowStart = new AtomicLong(System.nanoTime());
+        this.windowRttSum = new LongAdder();
+        this.windowSamples = new LongAdder();
+        this.minRtt = new AtomicLong(Long.MAX_VALUE);
+        this.windowMinRtt = new AtomicLong(Long.MAX_VALUE);
+        this.windowsSinceMinRttReset = new AtomicInteger();
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        this.permits.acquire();
+    }
+
+    @Override
+    public CompletableFuture<Void> acquireAsync() {
+        return this.permits.acquireAsync();
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return this.permits.tryAcquire();
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.permits.tryAcquire(timeout, unit);
+    }
+
+    @Override
+    public void release() {
+        // No latency sample, e.g. the call failed before reaching the upstream.
+        this.permits.release();
+    }
+
+    @Override
+    public void release(long callNanos) {
+        this.permits.release();
+        onSample(callNanos);
+    }
+
+    @Override
+    public int availablePermits() {
+        return this.permits.availablePermits();
+    }
+
+    public int getLimit() {
+        return this.appliedLimit.get();
+    }
+
+    private void onSample(long rttNanos) {
+        this.windowRttSum.add(rttNanos);
+        this.windowSamples.increment();
+        this.minRtt.accumulateAndGet(rttNanos, Math::min);
+        this.windowMinRtt.accumulateAndGet(rttNanos, Math::min);
+
+        long now = System.nanoTime();
+        long start = this.windowStart.get();
+        if (now - start < WINDOW_NANOS || this.windowSamples.sum() < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        if (!this.windowStart.compareAndSet(start, now)) {
+            return;
+        }
+
+        // Only the thread that closed the window gets here, once per window.
+        long samples = this.windowSamples.sumThenReset();
+        long rttSum = this.windowRttSum.sumThenReset();
+        long windowMin = this.windowMinRtt.getAndSet(Long.MAX_VALUE);
+        if (samples == 0) {
+            return;
+        }
+
+        // Closing two windows can overlap (a slow closer and the next one),
+        // so count atomically: exactly one closer in every
+        // MIN_RTT_RESET_WINDOWS sees the count wrap to 0 and resets.
+        if (this.windowsSinceMinRttReset.updateAndGet(
+                windows -> windows + 1 >= MIN_RTT_RESET_WINDOWS ? 0 : windows + 1) == 0) {
+            this.minRtt.set(windowMin);
+        }
+
+        double averageRtt = (double) rttSum / samples;
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * this.minRtt.get() / averageRtt));
+        double current = this.limit;
+        double newLimit = current * gradient + Math.sqrt(current);
+        newLimit = current * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        newLimit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+        this.limit = newLimit;
+
+        int applied = (int) newLimit;
+        int previous = this.appliedLimit.getAndSet(applied);
+        if (applied != previous) {
+            this.permits.adjustPermits(applied - previous);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.concurrency.ratelimiter;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class AsyncSemaphoreRateLimiter implements RateLimiter {
+    /*
+        A concurrency limiter (like `SemaphoreRateLimiter`) whose waiters are
+        futures instead of threads.
+
+        `Semaphore.acquire()` parks the calling thread until a permit is
+        free. With 100k calls waiting, that's 100k parked threads. Here a
+        caller that can't get a permit right away gets an incomplete
+        `CompletableFuture` which goes into a FIFO queue, and the caller
+        doesn't wait on anything. Whoever releases a permit hands it straight
+        to the oldest waiter by completing its future. A waiting call costs
+        one small object, no thread at all.
+
+        Both the permit count and the queue are lock-free:
+            - a permit is taken with a compareAndSet on `permits`,
+            - a releaser returns the permit and then drains: while there is
+              both a waiter and a permit, it takes the permit and completes
+              the oldest waiter.
+        Every enqueue and every release ends with a drain, so whichever of
+        the two happens last sees both the waiter and the permit. A permit
+        can't get stuck while somebody waits for it.
+
+        Careful: the future is completed on the releasing thread, so
+        callbacks chained with `thenRun()` also run there. Chain with
+        `thenRunAsync(..., executor)` for anything heavy.
+
+        Fairness: `tryAcquire()` doesn't barge in front of queued waiters.
+     */
+    private final AtomicInteger permits;
+    private final Queue<CompletableFuture<Void>> waiters;
+
+    public AsyncSemaphoreRateLimiter(int maxLimit) {
+        this.permits = new AtomicInteger(maxLimit);
+        this.waiters = new ConcurrentLinkedQueue<>();
+    }
+
+    @Override
+    public CompletableFuture<Void> acquireAsync() {
+        if (this.waiters.isEmpty() && takePermit()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        this.waiters.add(waiter);
+        drain();
+        return waiter;
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        CompletableFuture<Void> permit = acquireAsync();
+        try {
+            permit.get();
+        } catch (InterruptedException ex) {
+            if (!abandon(permit)) {
+                release();
+            }
+            throw ex;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return this.waiters.isEmpty() && takePermit();
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        CompletableFuture<Void> permit = acquireAsync();
+        try {
+            permit.get(timeout, unit);
+            return true;
+        } catch (TimeoutException ex) {
+            return !abandon(permit);
+        } catch (InterruptedException ex) {
+            if (!abandon(permit)) {
+                release();
+            }
+            throw ex;
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    @Override
+    public void release() {
+        this.permits.incrementAndGet();
+        drain();
+    }
+
+    @Override
+    public int availablePermits() {
+        return Math.max(0, this.permits.get());
+    }
+
+    /**
+     * Grows or shrinks the number of permits. Shrinking below the permits
+     * in use is fine: the count goes negative and nobody gets a new permit
+     * until enough of them came back.
+     */
+    void adjustPermits(int delta) {
+        this.permits.addAndGet(delta);
+        if (delta > 0) {
+            drain();
+        }
+    }
+
+    public int queueLength() {
+        return this.waiters.size();
+    }
+
+    private boolean takePermit() {
+        while (true) {
+            int available = this.permits.get();
+            if (available <= 0) {
+                return false;
+            }
+            if (this.permits.compareAndSet(available, available - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void drain() {
+        while (!this.waiters.isEmpty() && takePermit()) {
+            CompletableFuture<Void> waiter = this.waiters.poll();
+            // Somebody else drained the last waiter, or the waiter gave up in
+            // the meantime: the permit we took goes back.
+            if (waiter == null || !waiter.complete(null)) {
+                this.permits.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Withdraws a waiter that stopped waiting. Returns true if it's gone for
+     * good; false if it had already been granted the permit in the meantime,
+     * in which case the caller owns that permit.
+     */
+    private boolean abandon(CompletableFuture<Void> permit) {
+        if (permit.cancel(false)) {
+            this.waiters.remove(permit);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,100 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class InstrumentedRateLimiter implements RateLimiter {
+    /*
+        Decorator that records `RateLimiterMetrics` around any other limiter,
+        so every strategy gets the same metrics without knowing about them.
+
+        Budget: < 50ns per acquire. A single System.nanoTime() costs 20-50ns
+        depending on the clock source, so the clock is only read when a
+        caller really has to wait: `acquire()` first tries to take a permit
+        without blocking and records a wait of 0 if that works. Only the slow
+        path, which is about to block anyway, pays for timing the wait. The
+        call duration is measured by the caller, who needs it for
+        `release(callNanos)` anyway. So an uncontended acquire + release
+        costs two atomic increments in a histogram stripe.
+
+        Trying first doesn't change who gets the permit: `tryAcquire()` of
+        every limiter here succeeds only when `acquire()` wouldn't have to
+        wait either (none of them uses a fair `Semaphore`, where tryAcquire()
+        barges ahead of waiting threads).
+     */
+    private final RateLimiter delegate;
+    private final RateLimiterMetrics metrics;
+
+    public InstrumentedRateLimiter(RateLimiter delegate) {
+        this.delegate = delegate;
+        this.metrics = new RateLimiterMetrics();
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        if (this.delegate.tryAcquire()) {
+            this.metrics.onAcquired(0);
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.delegate.acquire();
+        this.metrics.onAcquired(System.nanoTime() - start);
+    }
+
+    @Override
+    public CompletableFuture<Void> acquireAsync() {
+        if (this.delegate.tryAcquire()) {
+            this.metrics.onAcquired(0);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        long start = System.nanoTime();
+        return this.delegate.acquireAsync().thenApply(permit -> {
+            this.metrics.onAcquired(System.nanoTime() - start);
+            return permit;
+        });
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        if (this.delegate.tryAcquire()) {
+            this.metrics.onAcquired(0);
+            return true;
+        }
+        this.metrics.onRejected();
+        return false;
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        if (this.delegate.tryAcquire(timeout, unit)) {
+            this.metrics.onAcquired(System.nanoTime() - start);
+            return true;
+        }
+        this.metrics.onTimedOut();
+        return false;
+    }
+
+    @Override
+    public void release() {
+        this.metrics.onReleased();
+        this.delegate.release();
+    }
+
+    @Override
+    public void release(long callNanos) {
+        this.metrics.onCallCompleted(callNanos);
+        this.delegate.release(callNanos);
+    }
+
+    @Override
+    public int availablePermits() {
+        return this.delegate.availablePermits();
+    }
+
+    public RateLimiterMetrics.Snapshot snapshot() {
+        return this.metrics.snapshot(this.delegate.availablePermits());
+    }
+}
@@ -0,0 +1,284 @@
+package com.concurrency.ratelimiter;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+class KeyedRateLimiter<K> {
+    /*
+        One token bucket per key (e.g. per tenant), all with the same rate and
+        burst.
+
+        State per key: the token bucket of `TokenBucketRateLimiter` is fully
+        described by a single `nextFree` timestamp, so a key costs one
+        `AtomicLong` plus its map entry. Acquiring is one map lookup and one
+        compareAndSet on that key's own AtomicLong; two tenants never touch
+        the same memory, so a hot tenant doesn't slow anybody else down.
+
+        Striping: the keys are spread over several `ConcurrentHashMap` shards.
+        Lookups don't need it (a ConcurrentHashMap read is lock-free), but
+        each shard is bounded and swept on its own.
+
+        Eviction without losing limits:
+            A bucket whose `nextFree` is in the past is FULL, i.e. in exactly
+            the state a brand-new bucket starts in. Dropping it loses no
+            information. So a sweep removes keys whose bucket has been full
+            for at least `idleTimeout`. A shard that is still over its size
+            bound after that also drops full buckets that were used recently,
+            and as a last resort arbitrary ones; that's the only case where a
+            tenant may briefly get a fresh burst.
+
+            Race: thread A reads key K's bucket, the sweeper removes it, A
+            takes a token from the removed bucket and the token is lost. To
+            prevent that, the sweeper first CASes the bucket to EVICTED and
+            only then removes it. A thread that finds EVICTED just looks the
+            key up again.
+
+        Sweeps piggyback on callers, but incrementally: walking a whole shard
+        of a million keys inside one `acquire` would stall that caller for
+        milliseconds. Every `sweepInterval` a shard starts a new pass, and
+        while a pass is running each caller hitting the shard moves the
+        shard's cursor on by at most `SWEEP_STEP` keys. A shard over its
+        bound evicts at most `SWEEP_STEP` keys per insert the same way. So no
+        acquire ever does more than a constant amount of sweeping, however
+        many keys there are. If another caller is sweeping the shard right
+        now, the next one just skips its step. No background thread.
+     */
+    private static final long EVICTED = Long.MIN_VALUE;
+    private static final int SWEEP_STEP = 32;
+
+    private static final class Shard<K> {
+        final ConcurrentHashMap<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+        // Start of the next pass; in the past while a pass is running.
+        final AtomicLong nextSweep;
+        // Whoever sets it owns `cursor` until clearing it again.
+        final AtomicBoolean sweeping = new AtomicBoolean();
+        Iterator<Map.Entry<K, AtomicLong>> cursor;
+
+        Shard(long now) {
+            this.nextSweep = new AtomicLong(now);
+        }
+    }
+
+    private final Shard<K>[] shards;
+    private final int mask;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long maxKeysPerShard;
+    private final long idleNanos;
+    private final long sweepIntervalNanos;
+
+    @SuppressWarnings("unchecked")
+    public KeyedRateLimiter(double permitsPerSecond, int capacity, long maxKeys, long idleTimeout, TimeUnit unit) {
+        if (permitsPerSecond <= 0 || capacity <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond, capacity and maxKeys must be positive");
+        }
+
+        int shardCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 8 - 1) << 1;
+        long now = System.nanoTime();
+        this.shards = (Shard<K>[]) new Shard<?>[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard<>(now);
+        }
+        this.mask = shardCount - 1;
+
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = this.intervalNanos * capacity;
+        this.maxKeysPerShard = Math.max(1, maxKeys / shardCount);
+        this.idleNanos = unit.toNanos(idleTimeout);
+        this.sweepIntervalNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(100), this.idleNanos / 4);
+    }
+
+    public boolean tryAcquire(K key) {
+        return reserve(key, 0) != TokenBucketRateLimiter.NOT_RESERVED;
+    }
+
+    public boolean tryAcquire(K key, long timeout, TimeUnit unit) throws InterruptedException {
+        long at = reserve(key, unit.toNanos(timeout));
+        if (at == TokenBucketRateLimiter.NOT_RESERVED) {
+            return false;
+        }
+        TokenBucketRateLimiter.waitUntil(at);
+        return true;
+    }
+
+    public void acquire(K key) throws InterruptedException {
+        TokenBucketRateLimiter.waitUntil(reserve(key, Long.MAX_VALUE));
+    }
+
+    /**
+     * A {@link RateLimiter} view of a single key, e.g. to hand to an
+     * `APICaller` of one tenant.
+     */
+    public RateLimiter forKey(K key) {
+        return new RateLimiter() {
+            @Override
+            public void acquire() throws InterruptedException {
+                KeyedRateLimiter.this.acquire(key);
+            }
+
+            @Override
+            public boolean tryAcquire() {
+                return KeyedRateLimiter.this.tryAcquire(key);
+            }
+
+            @Override
+            public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+                return KeyedRateLimiter.this.tryAcquire(key, timeout, unit);
+            }
+
+            @Override
+            public void release() {
+                // Tokens are consumed, not returned.
+            }
+
+            @Override
+            public int availablePermits() {
+                return KeyedRateLimiter.this.availablePermits(key);
+            }
+        };
+    }
+
+    public int availablePermits(K key) {
+        AtomicLong bucket = shardFor(key).buckets.get(key);
+        long nextFree = bucket == null ? EVICTED : bucket.get();
+        if (nextFree == EVICTED) {
+            return (int) (this.burstNanos / this.intervalNanos);
+        }
+        long backlog = Math.max(0, nextFree - System.nanoTime());
+        return (int) ((this.burstNanos - backlog) / this.intervalNanos);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Shard<K> shard : this.shards) {
+            size += shard.buckets.size();
+        }
+        return size;
+    }
+
+    private long reserve(K key, long maxWaitNanos) {
+        Shard<K> shard = shardFor(key);
+        long now = System.nanoTime();
+        maybeSweep(shard, now);
+
+        while (true) {
+            AtomicLong bucket = shard.buckets.get(key);
+            if (bucket == null) {
+                bucket = insert(shard, key, now);
+            }
+
+            long nextFree = bucket.get();
+            if (nextFree == EVICTED) {
+                // Lost against a sweep, this bucket is on its way out.
+                shard.buckets.remove(key, bucket);
+                continue;
+            }
+
+            long at = TokenBucketRateLimiter.reserve(nextFree, now, this.intervalNanos, this.burstNanos, maxWaitNanos);
+            if (at == TokenBucketRateLimiter.NOT_RESERVED) {
+                return at;
+            }
+            if (bucket.compareAndSet(nextFree, Math.max(nextFree, now) + this.intervalNanos)) {
+                return at;
+            }
+            now = System.nanoTime();
+        }
+    }
+
+    private AtomicLong insert(Shard<K> shard, K key, long now) {
+        AtomicLong fresh = new AtomicLong(now);
+        AtomicLong existing = shard.buckets.putIfAbsent(key, fresh);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (shard.buckets.size() > this.maxKeysPerShard && shard.sweeping.compareAndSet(false, true)) {
+            try {
+                trim(shard, now, key);
+            } finally {
+                shard.sweeping.set(false);
+            }
+        }
+        return fresh;
+    }
+
+    private void maybeSweep(Shard<K> shard, long now) {
+        if (now - shard.nextSweep.get() >= 0 && shard.sweeping.compareAndSet(false, true)) {
+            try {
+                sweepStep(shard, now, now - this.idleNanos, null);
+            } finally {
+                shard.sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Looks at the next {@link #SWEEP_STEP} keys of the running pass and
+     * evicts those that have been full since {@code idleSince}, sparing
+     * {@code spared}. Ends the pass when the cursor runs out. Called with
+     * {@code shard.sweeping} set.
+     */
+    private void sweepStep(Shard<K> shard, long now, long idleSince, K spared) {
+        if (shard.cursor == null) {
+            shard.cursor = shard.buckets.entrySet().iterator();
+        }
+
+        for (int i = 0; i < SWEEP_STEP; i++) {
+            if (!shard.cursor.hasNext()) {
+                shard.cursor = null;
+                shard.nextSweep.set(now + this.sweepIntervalNanos);
+                return;
+            }
+            Map.Entry<K, AtomicLong> entry = shard.cursor.next();
+            if (!entry.getKey().equals(spared)) {
+                evictIfFullSince(shard, entry.getKey(), entry.getValue(), idleSince);
+            }
+        }
+    }
+
+    /**
+     * The shard is over its bound after inserting {@code inserted}: evicts
+     * at least one other key, looking at no more than 2 * {@link #SWEEP_STEP}
+     * keys. Called with {@code shard.sweeping} set.
+     */
+    private void trim(Shard<K> shard, long now, K inserted) {
+        // Any full bucket may go, however recently it was used.
+        sweepStep(shard, now, now, inserted);
+
+        // Still too many keys: the ones looked at all have tokens in use.
+        // Drop some anyway to keep memory bounded.
+        if (shard.cursor == null) {
+            shard.cursor = shard.buckets.entrySet().iterator();
+        }
+        for (int i = 0; i < SWEEP_STEP && shard.buckets.size() > this.maxKeysPerShard; i++) {
+            if (!shard.cursor.hasNext()) {
+                shard.cursor = shard.buckets.entrySet().iterator();
+                if (!shard.cursor.hasNext()) {
+                    return;
+                }
+            }
+            Map.Entry<K, AtomicLong> entry = shard.cursor.next();
+            if (!entry.getKey().equals(inserted)) {
+                entry.getValue().set(EVICTED);
+                shard.buckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void evictIfFullSince(Shard<K> shard, K key, AtomicLong bucket, long idleSince) {
+        long nextFree = bucket.get();
+        if (nextFree != EVICTED && nextFree - idleSince <= 0 && bucket.compareAndSet(nextFree, EVICTED)) {
+            shard.buckets.remove(key, bucket);
+        }
+    }
+
+    private Shard<K> shardFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return this.shards[h & this.mask];
+    }
+}
@@ -0,0 +1,122 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class LatencyHistogram {
+    /*
+        A fixed-size, lock-free latency histogram in the spirit of
+        HdrHistogram.
+
+        Buckets are log-linear: every power of two [2^k, 2^(k+1)) is split
+        into 32 equally wide sub-buckets. So a bucket is never wider than
+        1/32 (~3%) of the values it holds, whether they are 40ns or 40s, and
+        the whole long range fits in ~1900 buckets. Recording a value is a
+        few shifts to find the bucket plus one atomic increment, no
+        allocation, no lock, no sorting.
+
+        Many threads incrementing the same hot bucket would fight over one
+        cache line, so the counters are striped: each thread records into the
+        stripe picked by its thread id, and a snapshot sums the stripes.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    public LatencyHistogram() {
+        int stripeCount = Integer.highestOneBit(Math.min(8, Runtime.getRuntime().availableProcessors()));
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    public void record(long nanos) {
+        int stripe = (int) Thread.currentThread().threadId() & this.stripeMask;
+        this.stripes[stripe].getAndIncrement(bucketOf(Math.max(0, nanos)));
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : this.stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+        return lowest + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        public long count() {
+            return this.count;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, i.e. at
+         * most ~3% above the real value. 0 if nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(this.count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return highestValueIn(i);
+                }
+            }
+            return highestValueIn(this.counts.length - 1);
+        }
+
+        public long max() {
+            for (int i = this.counts.length - 1; i >= 0; i--) {
+                if (this.counts[i] > 0) {
+                    return highestValueIn(i);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count = %d, p50 = %d ns, p90 = %d ns, p99 = %d ns, p99.9 = %d ns, max = %d ns",
+                    count(), percentile(50), percentile(90), percentile(99), percentile(99.9), max());
+        }
+    }
+}
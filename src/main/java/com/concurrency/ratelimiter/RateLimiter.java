@@ -0,0 +1,72 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+interface RateLimiter {
+    /*
+        Common contract of every limiting strategy, so that `APICaller` does
+        not care whether it's limited by concurrency (how many calls are in
+        flight) or by rate (how many calls per second).
+
+        Concurrency limiters hand out permits that must be given back with
+        `release()`. Rate limiters hand out permits that expire by themselves,
+        so their `release()` does nothing. Callers should always pair a
+        successful acquire with a release, then they work with both.
+     */
+
+    /**
+     * Blocks until a permit is available.
+     */
+    void acquire() throws InterruptedException;
+
+    /**
+     * Takes a permit if one is available right now, never blocks.
+     */
+    boolean tryAcquire();
+
+    /**
+     * Waits at most the given time for a permit.
+     */
+    boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Returns a future that completes once a permit is held by the caller.
+     * The default waits for it on a virtual thread; limiters that can queue
+     * waiters without any thread override this.
+     */
+    default CompletableFuture<Void> acquireAsync() {
+        if (tryAcquire()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                acquire();
+                if (!permit.complete(null)) {
+                    release();
+                }
+            } catch (InterruptedException ex) {
+                permit.completeExceptionally(ex);
+            }
+        });
+        return permit;
+    }
+
+    void release();
+
+    /**
+     * Releases the permit and reports how long the call made with it took.
+     * Limiters that adapt to latency use it, the others just release.
+     */
+    default void release(long callNanos) {
+        release();
+    }
+
+    /**
+     * Permits that could be taken right now without waiting. It's only a
+     * snapshot, it may be stale by the time the caller looks at it.
+     */
+    int availablePermits();
+}
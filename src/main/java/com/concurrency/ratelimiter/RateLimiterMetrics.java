@@ -0,0 +1,96 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+class RateLimiterMetrics {
+    /*
+        Counters and latency histograms of one limiter, updated on the hot
+        path and read by whoever scrapes `snapshot()`.
+
+        `LongAdder` instead of `AtomicLong`: every thread increments its own
+        cell, so counting doesn't make all callers fight over one cache line.
+        Reading sums the cells, which is slower, but it happens once per
+        scrape, not once per call.
+
+        Every acquired permit is recorded in `waitTime` (with 0 if it didn't
+        wait) and every release that reports its duration in `callDuration`,
+        so the histogram counts double as the acquired/released counters.
+        One atomic increment per event instead of two.
+     */
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder releasedWithoutDuration = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram callDuration = new LatencyHistogram();
+
+    void onAcquired(long waitNanos) {
+        this.waitTime.record(waitNanos);
+    }
+
+    void onRejected() {
+        this.rejected.increment();
+    }
+
+    void onTimedOut() {
+        this.timedOut.increment();
+    }
+
+    void onReleased() {
+        this.releasedWithoutDuration.increment();
+    }
+
+    void onCallCompleted(long callNanos) {
+        this.callDuration.record(callNanos);
+    }
+
+    public Snapshot snapshot(int availablePermits) {
+        // Released is read before acquired, so a call that completes in
+        // between can't make the in-flight gauge go negative.
+        LatencyHistogram.Snapshot callDuration = this.callDuration.snapshot();
+        long released = callDuration.count() + this.releasedWithoutDuration.sum();
+        LatencyHistogram.Snapshot waitTime = this.waitTime.snapshot();
+        return new Snapshot(this.rejected.sum(), this.timedOut.sum(), released, availablePermits,
+                waitTime, callDuration);
+    }
+
+    static final class Snapshot {
+        final long acquired;
+        final long rejected;
+        final long timedOut;
+        final long inFlight;
+        final int availablePermits;
+        final LatencyHistogram.Snapshot waitTime;
+        final LatencyHistogram.Snapshot callDuration;
+
+        Snapshot(long rejected, long timedOut, long released, int availablePermits,
+                 LatencyHistogram.Snapshot waitTime, LatencyHistogram.Snapshot callDuration) {
+            this.acquired = waitTime.count();
+            this.rejected = rejected;
+            this.timedOut = timedOut;
+            this.inFlight = Math.max(0, this.acquired - released);
+            this.availablePermits = availablePermits;
+            this.waitTime = waitTime;
+            this.callDuration = callDuration;
+        }
+
+        /**
+         * Share of the permits in use, for concurrency limiters. Rate limiters
+         * report tokens rather than permits in use, so take it with a grain of
+         * salt there.
+         */
+        public double utilisation() {
+            long capacity = this.inFlight + this.availablePermits;
+            return capacity == 0 ? 0 : (double) this.inFlight / capacity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("acquired = %d, rejected = %d, timed out = %d, in flight = %d, "
+                            + "available permits = %d, utilisation = %.0f%%%n"
+                            + "  permit wait   : %s%n"
+                            + "  call duration : %s",
+                    this.acquired, this.rejected, this.timedOut, this.inFlight, this.availablePermits,
+                    utilisation() * 100, this.waitTime, this.callDuration);
+        }
+    }
+}
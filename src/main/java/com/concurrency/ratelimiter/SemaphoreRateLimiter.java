@@ -0,0 +1,67 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+class SemaphoreRateLimiter implements RateLimiter {
+    /*
+        `Semaphore` is used when multiple threads upto a specific number should
+        be allowed to access a common set of resources. `Semaphore` is used as
+        a resource guard or counter. There are some good use cases for `Semaphore` like:
+            1. Controlling the number of threads accessing resource pools like
+            database connection pool.
+            2. Rate limiting api calls.
+            3. Controlling the maximum number of tasks or jobs that a system can handle.
+
+        `Semaphore` should not be used in a critical section which directly performs
+        data manipulation like increasing/decreasing counter, modifying data structure,
+        etc. If multiple threads access those critical section of code through Semaphore,
+        they will corrupt the data. So, for such kinds of use cases, other locks are better
+        suited. See other examples.
+
+        A semaphore does not keep track of which thread has acquired it. So, there is
+        no ownership model. Any thread can acquire and any thread can release.
+
+        A semaphore with permit value 1 is called Mutex. In our example, we use
+        Counting Semaphore, which is initialized to permit more than 1.
+
+        If there is no permit available, calling threads wait on the semaphore.
+        Once a permit is available, semaphore singals waiting threads for its
+        availability, and accordingly, other threads either proceed further or
+        continue waiting.
+
+        Semaphore is Non-Reentrant in nature. So if the same thread wants to
+        access two nested methods which are protected by the same semaphore,
+        the semaphore will be acquired twice.
+     */
+    private final Semaphore semaphore;
+
+    public SemaphoreRateLimiter(int maxLimit) {
+        this.semaphore = new Semaphore(maxLimit);
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        this.semaphore.acquire();
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return this.semaphore.tryAcquire();
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.semaphore.tryAcquire(timeout, unit);
+    }
+
+    @Override
+    public void release() {
+        this.semaphore.release();
+    }
+
+    @Override
+    public int availablePermits() {
+        return this.semaphore.availablePermits();
+    }
+}
@@ -0,0 +1,59 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.Semaphore;
+
+class SimulatedUpstream implements APIRateLimiter.ExternalAPIClient {
+    /*
+        Stand-in for a remote service: it has `capacity` workers, and each
+        request keeps a worker busy for `serviceMillis`. Requests beyond the
+        capacity wait in the upstream's FIFO queue, exactly like a real
+        overloaded server. Throughput tops out at capacity / serviceTime, and
+        from then on more concurrency only adds latency.
+
+        `setCapacity()` changes the capacity on the fly, e.g. to simulate the
+        upstream losing half of its instances.
+     */
+    private static final class Workers extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Workers(int permits) {
+            super(permits, true);
+        }
+
+        void remove(int permits) {
+            reducePermits(permits);
+        }
+    }
+
+    private final Workers workers;
+    private final long serviceMillis;
+    private int capacity;
+
+    public SimulatedUpstream(int capacity, long serviceMillis) {
+        this.workers = new Workers(capacity);
+        this.capacity = capacity;
+        this.serviceMillis = serviceMillis;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        if (capacity > this.capacity) {
+            this.workers.release(capacity - this.capacity);
+        } else {
+            this.workers.remove(this.capacity - capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void call() {
+        this.workers.acquireUninterruptibly();
+
+        try {
+            Thread.sleep(this.serviceMillis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.workers.release();
+        }
+    }
+}
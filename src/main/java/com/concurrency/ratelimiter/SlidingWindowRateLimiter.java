@@ -0,0 +1,135 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+class SlidingWindowRateLimiter implements RateLimiter {
+    /*
+        Allows at most `limit` calls in any window of `window` length.
+
+        A fixed window ("100 calls per calendar second") lets through 200 calls
+        around a window boundary: 100 at the end of one second and 100 at the
+        start of the next. A true sliding window fixes that but needs the
+        timestamp of every call. The sliding window COUNTER is the usual
+        middle ground: keep the counts of the current and the previous fixed
+        window, and weight the previous one by how much of it still overlaps
+        the sliding window:
+
+            |---- previous ----|---- current ----|
+                         |====== sliding =====|
+                                 ^ now, 40% into current
+
+            estimate = previous * 0.6 + current
+
+        Lock-free: the current window is an immutable object behind an
+        `AtomicReference`, and only its counter changes. Admitting a call is a
+        compareAndSet on that counter; moving to a new window is a
+        compareAndSet on the reference, which exactly one thread wins.
+
+        The estimate assumes calls were spread evenly over the previous
+        window, so it's an approximation. In exchange the state is two
+        numbers, no matter how high the limit.
+     */
+    private static final class Window {
+        final long start;
+        final long previousCount;
+        final AtomicLong count;
+
+        Window(long start, long previousCount) {
+            this.start = start;
+            this.previousCount = previousCount;
+            this.count = new AtomicLong();
+        }
+    }
+
+    private final long limit;
+    private final long windowNanos;
+    private final AtomicReference<Window> current;
+
+    public SlidingWindowRateLimiter(long limit, long window, TimeUnit unit) {
+        if (limit <= 0 || window <= 0) {
+            throw new IllegalArgumentException("limit and window must be positive");
+        }
+
+        this.limit = limit;
+        this.windowNanos = unit.toNanos(window);
+        this.current = new AtomicReference<>(new Window(System.nanoTime(), 0));
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        while (!tryAcquire()) {
+            pause();
+        }
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        Window window = windowAt(now);
+        double previousWeight = 1.0 - (double) (now - window.start) / this.windowNanos;
+
+        while (true) {
+            long count = window.count.get();
+            if (window.previousCount * previousWeight + count + 1 > this.limit) {
+                return false;
+            }
+            if (window.count.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!tryAcquire()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            pause();
+        }
+        return true;
+    }
+
+    @Override
+    public void release() {
+        // Calls are counted when they start, nothing to give back.
+    }
+
+    @Override
+    public int availablePermits() {
+        long now = System.nanoTime();
+        Window window = windowAt(now);
+        double previousWeight = 1.0 - (double) (now - window.start) / this.windowNanos;
+        return (int) Math.max(0, this.limit - (window.previousCount * previousWeight + window.count.get()));
+    }
+
+    private Window windowAt(long now) {
+        while (true) {
+            Window window = this.current.get();
+            long elapsed = now - window.start;
+            if (elapsed < this.windowNanos) {
+                return window;
+            }
+
+            // The window is over. If we're right in the next one, the old
+            // count becomes the previous count; if whole windows went by
+            // without any call, there's nothing left to carry over.
+            long windows = elapsed / this.windowNanos;
+            long previousCount = windows == 1 ? window.count.get() : 0;
+            this.current.compareAndSet(window, new Window(window.start + windows * this.windowNanos, previousCount));
+        }
+    }
+
+    private void pause() throws InterruptedException {
+        // The estimate goes down continuously as the previous window slides
+        // out, roughly one permit per (window / limit).
+        LockSupport.parkNanos(Math.max(1_000, this.windowNanos / this.limit));
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.concurrency.ratelimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+class TokenBucketRateLimiter implements RateLimiter {
+    /*
+        A token bucket holds up to `capacity` tokens and is refilled at
+        `permitsPerSecond`. Every call takes one token; no token, no call.
+        The capacity is the burst we tolerate after a quiet period, the refill
+        rate is the sustained rate.
+
+        The textbook version stores (tokens, lastRefillTime) and has either a
+        refill thread or a lock around "refill, then take". Neither is needed:
+        the whole bucket can be described by ONE number, the time at which the
+        bucket would be full again if nobody took anything more. This is the
+        Generic Cell Rate Algorithm (GCRA), and it's equivalent to the bucket:
+
+            interval  = 1s / permitsPerSecond   (time to refill one token)
+            nextFree  = "theoretical arrival time" of the next call
+
+            take one token at time `now`:
+                candidate = max(nextFree, now) + interval
+                allowed if candidate - now <= capacity * interval
+
+        The refill is implicit: as `now` moves forward, `candidate - now`
+        shrinks. It's computed lazily from System.nanoTime() on every call.
+
+        Since the state is a single long, taking a token is a single
+        compareAndSet on an AtomicLong. No lock, no refill thread.
+
+        Blocking acquire doesn't poll either: it RESERVES the next slot right
+        away (moves nextFree forward) and then sleeps exactly until that slot.
+        Threads that reserve after it get later slots, which keeps waiters in
+        order without any queue.
+     */
+    static final long NOT_RESERVED = Long.MIN_VALUE;
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextFree;
+
+    public TokenBucketRateLimiter(double permitsPerSecond, int capacity) {
+        if (permitsPerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond and capacity must be positive");
+        }
+
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = this.intervalNanos * capacity;
+        // A full bucket: nextFree is not in the future.
+        this.nextFree = new AtomicLong(System.nanoTime());
+    }
+
+    @Override
+    public void acquire() throws InterruptedException {
+        waitUntil(reserve(Long.MAX_VALUE));
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return reserve(0) != NOT_RESERVED;
+    }
+
+    @Override
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long at = reserve(unit.toNanos(timeout));
+        if (at == NOT_RESERVED) {
+            return false;
+        }
+        waitUntil(at);
+        return true;
+    }
+
+    @Override
+    public void release() {
+        // Tokens are consumed, not returned.
+    }
+
+    @Override
+    public int availablePermits() {
+        long now = System.nanoTime();
+        long backlog = Math.max(0, this.nextFree.get() - now);
+        return (int) ((this.burstNanos - backlog) / this.intervalNanos);
+    }
+
+    /**
+     * Reserves one token. Returns the nanoTime at which the caller may
+     * proceed (now or in the future), or NOT_RESERVED if that would be more
+     * than {@code maxWaitNanos} away.
+     */
+    private long reserve(long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = this.nextFree.get();
+            long result = reserve(current, now, this.intervalNanos, this.burstNanos, maxWaitNanos);
+            if (result == NOT_RESERVED) {
+                return NOT_RESERVED;
+            }
+            if (this.nextFree.compareAndSet(current, Math.max(current, now) + this.intervalNanos)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * The GCRA decision itself. It is free of any state, so a limiter that
+     * keeps `nextFree` somewhere else can reuse it.
+     */
+    static long reserve(long nextFree, long now, long intervalNanos, long burstNanos, long maxWaitNanos) {
+        long candidate = Math.max(nextFree, now) + intervalNanos;
+        long wait = candidate - now - burstNanos;
+        if (wait > 0 && wait > maxWaitNanos) {
+            return NOT_RESERVED;
+        }
+        return now + Math.max(0, wait);
+    }
+
+    static void waitUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.concurrency.wordscounter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class ByteWord {
+    /*
+        A word as raw bytes, usable as a hash map key.
+
+        Looking a word up must not allocate, or counting a 10GB file would
+        allocate a key per token. So the counting loop keeps one mutable
+        probe, points it at the tokenizer's scratch bytes with `set()`, and
+        looks that up. Only a word that's not in the map yet gets its own
+        immutable copy (`copy()`), i.e. one allocation per distinct word.
+        A probe must never be stored in a map itself.
+     */
+    private byte[] bytes;
+    private int length;
+    private int hash;
+
+    ByteWord set(byte[] bytes, int length, long hash) {
+        this.bytes = bytes;
+        this.length = length;
+        this.hash = (int) (hash ^ (hash >>> 32));
+        return this;
+    }
+
+    ByteWord copy() {
+        ByteWord copy = new ByteWord();
+        copy.bytes = Arrays.copyOf(this.bytes, this.length);
+        copy.length = this.length;
+        copy.hash = this.hash;
+        return copy;
+    }
+
+    byte[] toBytes() {
+        return Arrays.copyOf(this.bytes, this.length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ByteWord word) || word.hash != this.hash || word.length != this.length) {
+            return false;
+        }
+        return Arrays.equals(this.bytes, 0, this.length, word.bytes, 0, word.length);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.bytes, 0, this.length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,101 @@
+package com.concurrency.wordscounter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+class CountMinSketch {
+    /*
+        Approximate counts of an unbounded number of words in fixed memory.
+
+        A table of `depth` rows of `width` counters. Every row has its own
+        hash function that maps a word to one counter of the row; adding a
+        word increments its counter in every row. Other words hash onto the
+        same counters too, so each counter is the word's count plus some
+        noise, never less. The estimate is the minimum over the rows, the
+        counter with the least noise.
+
+        With width = e / epsilon and depth = ln(1 / delta), an estimate
+        exceeds the true count by more than epsilon * (total words) with
+        probability at most delta. Memory is width * depth longs, however
+        long the stream runs and however many distinct words it has.
+
+        The row hashes come from one 64-bit word hash, as h1 + row * h2
+        (Kirsch & Mitzenmacher), so a word is only hashed once.
+
+        Conservative update: a word only increments the counters that are
+        at its current minimum. The others already carry more noise than
+        it needs, so leaving them alone keeps the estimates tighter.
+     */
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long total;
+
+    public CountMinSketch(double epsilon, double delta) {
+        if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException("Expected 0 < epsilon, delta < 1");
+        }
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        this.counters = new long[this.width * this.depth];
+    }
+
+    /**
+     * Adds one occurrence of the word with this hash and returns its new
+     * estimated count.
+     */
+    public long add(long hash) {
+        this.total++;
+        long minimum = estimate(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int row = 0; row < this.depth; row++) {
+            int slot = row * this.width + Math.floorMod(h1 + row * h2, this.width);
+            if (this.counters[slot] == minimum) {
+                this.counters[slot] = minimum + 1;
+            }
+        }
+        return minimum + 1;
+    }
+
+    public long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long minimum = Long.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            minimum = Math.min(minimum, this.counters[row * this.width + Math.floorMod(h1 + row * h2, this.width)]);
+        }
+        return minimum;
+    }
+
+    /**
+     * Number of words added so far.
+     */
+    public long total() {
+        return this.total;
+    }
+
+    public long sizeInBytes() {
+        return (long) this.counters.length * Long.BYTES;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(this.width);
+        out.writeInt(this.depth);
+        out.writeLong(this.total);
+        for (long counter : this.counters) {
+            out.writeLong(counter);
+        }
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        if (in.readInt() != this.width || in.readInt() != this.depth) {
+            throw new IOException("Checkpoint was written with a different epsilon or delta");
+        }
+        this.total = in.readLong();
+        for (int i = 0; i < this.counters.length; i++) {
+            this.counters[i] = in.readLong();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.concurrency.wordscounter;
+
+class HyperLogLog {
+    /*
+        Estimates the number of distinct words in a fixed amount of memory.
+
+        The idea: in a stream of random 64-bit hashes, a hash starting with k
+        zero bits turns up about once per 2^k distinct values. So the longest
+        run of leading zeros seen says roughly how many distinct values went
+        by. Repeating a word repeats its hash and changes nothing, which is
+        what makes it count *distinct* words.
+
+        One such maximum is a very noisy estimate, so the hash is split:
+        the top `precision` bits pick one of m = 2^precision registers, and
+        each register keeps the longest zero run of the remaining bits it
+        saw. The registers are combined with a harmonic mean, which damps
+        the few registers that got lucky. The relative error is about
+        1.04 / sqrt(m): 1% for m = 16384 (16KB of registers), 2% for 4096.
+
+        Each register is one byte, however many words come by, and the
+        memory only depends on the error rate. Two sketches with the same
+        precision merge by taking the register-wise max: the result is the
+        sketch of both streams together. So every worker builds its own
+        sketch without sharing anything, and the results are merged after
+        the latch.
+
+        Small cardinalities (many registers still 0) are corrected with
+        linear counting, as in the original paper.
+     */
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 18;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /**
+     * A sketch whose estimates are within about {@code relativeError}
+     * (one standard deviation) of the true count.
+     */
+    public HyperLogLog(double relativeError) {
+        this(precisionFor(relativeError));
+    }
+
+    private HyperLogLog(int precision) {
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    static int precisionFor(double relativeError) {
+        if (!(relativeError > 0 && relativeError < 1)) {
+            throw new IllegalArgumentException("Expected 0 < relativeError < 1, got " + relativeError);
+        }
+        double registers = Math.pow(1.04 / relativeError, 2);
+        int precision = 64 - Long.numberOfLeadingZeros((long) Math.ceil(registers) - 1);
+        return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+    }
+
+    /**
+     * Adds a well mixed 64-bit hash, e.g. from {@link WordHash}.
+     */
+    public void add(long hash) {
+        int register = (int) (hash >>> (64 - this.precision));
+        // The bits below the register number, with a 1 appended so that the
+        // run length is bounded even for all-zero bits.
+        long rest = (hash << this.precision) | (1L << (this.precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > this.registers[register]) {
+            this.registers[register] = rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("Can't merge sketches of precision "
+                    + this.precision + " and " + other.precision);
+        }
+        for (int i = 0; i < this.registers.length; i++) {
+            if (other.registers[i] > this.registers[i]) {
+                this.registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = this.registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : this.registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public int sizeInBytes() {
+        return this.registers.length;
+    }
+}
@@ -0,0 +1,212 @@
+package com.concurrency.wordscounter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+class StreamingWordCounter implements AutoCloseable {
+    /*
+        Word counts of a file that keeps growing, updated incrementally.
+
+        Re-counting the whole file each time it grows redoes all the old
+        work. Instead this remembers the byte offset it got to and, on
+        every `poll()`, only reads what was appended since. A word at the
+        very end may still be half written, so a poll stops after the last
+        non-word byte and the rest is read again next time.
+
+        Exact counts would grow with the vocabulary forever. The counts go
+        into a `CountMinSketch` instead, and the `TopK` heap keeps the
+        heaviest hitters by their estimated count. Both have a fixed size,
+        and a word costs a constant `depth` counter updates plus O(log k)
+        for the heap. The heap's counts are upper bounds, off by at most
+        epsilon * (total words) with probability 1 - delta.
+
+        Checkpoint:
+            After each poll the offset, the sketch and the heap are written
+            to the checkpoint file together (to a temp file first, then
+            renamed over it, so a crash leaves either the old or the new
+            checkpoint). A new counter on the same checkpoint resumes where
+            the last one stopped: nothing is counted twice or skipped.
+
+        Concurrency: polling (by the tailer thread, see `start()`, or by
+        the caller) and queries are serialized by one lock, so
+        `heavyHitters()` can be called at any time from any thread.
+     */
+    private static final int READ_BYTES = 1 << 20;
+
+    private final Path file;
+    private final Path checkpoint;
+    private final CountMinSketch sketch;
+    private final TopK topK;
+    private final WordTokenizer tokenizer;
+    private final WordTokenizer.WordSink sink;
+    private final ByteBuffer buffer;
+    private final Lock lock;
+    private Thread tailer;
+    private long offset;
+
+    public StreamingWordCounter(Path file, Path checkpoint, int k, double epsilon, double delta) {
+        this.file = file;
+        this.checkpoint = checkpoint;
+        this.sketch = new CountMinSketch(epsilon, delta);
+        this.topK = new TopK(k);
+        this.tokenizer = new WordTokenizer();
+        this.sink = (word, length, hash) -> this.topK.offer(word, length, hash, this.sketch.add(hash));
+        this.buffer = ByteBuffer.allocateDirect(READ_BYTES);
+        this.lock = new ReentrantLock();
+
+        if (Files.exists(checkpoint)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+                this.offset = in.readLong();
+                this.sketch.readFrom(in);
+                this.topK.readFrom(in);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to read checkpoint " + checkpoint, ex);
+            }
+        }
+    }
+
+    /**
+     * Counts everything appended to the file since the last poll, saves a
+     * checkpoint and returns the number of new words.
+     */
+    public long poll() {
+        this.lock.lock();
+
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            long words = 0;
+            while (true) {
+                this.buffer.clear();
+                int read = channel.read(this.buffer, this.offset);
+                if (read <= 0) {
+                    break;
+                }
+                // A full buffer without any delimiter is one giant word: take
+                // it as it is rather than never moving on.
+                int limit = WordsCounter.lastWordEnd(this.buffer.flip());
+                if (limit == read && WordTokenizer.isWordByte(this.buffer.get(read - 1)) && read < READ_BYTES) {
+                    // The tail of the file, maybe a half-written word.
+                    break;
+                }
+                words += this.tokenizer.tokenize(this.buffer, 0, limit, this.sink);
+                this.offset += limit;
+            }
+            if (words > 0) {
+                saveCheckpoint();
+            }
+            return words;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to tail " + this.file, ex);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Polls every {@code interval} on a daemon thread until closed.
+     */
+    public void start(long interval, TimeUnit unit) {
+        this.tailer = Thread.ofPlatform().name("words-tailer").daemon().start(() -> {
+            try {
+                while (true) {
+                    poll();
+                    unit.sleep(interval);
+                }
+            } catch (InterruptedException ex) {
+                // Closed.
+            } catch (UncheckedIOException ex) {
+                // Closed in the middle of a read (the channel is closed by
+                // the interrupt), otherwise a real failure.
+                if (!Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+            }
+        });
+    }
+
+    /**
+     * The current top k words with their estimated counts, most frequent
+     * first.
+     */
+    public List<Map.Entry<String, Long>> heavyHitters() {
+        this.lock.lock();
+
+        try {
+            return this.topK.top();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long estimate(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        this.lock.lock();
+
+        try {
+            return this.sketch.estimate(WordHash.hash(bytes, 0, bytes.length));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long totalWords() {
+        this.lock.lock();
+
+        try {
+            return this.sketch.total();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Byte offset of the file up to which everything is counted.
+     */
+    public long offset() {
+        this.lock.lock();
+
+        try {
+            return this.offset;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.tailer != null) {
+            this.tailer.interrupt();
+            try {
+                this.tailer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void saveCheckpoint() throws IOException {
+        // Called with the lock held.
+        Path temp = this.checkpoint.resolveSibling(this.checkpoint.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeLong(this.offset);
+            this.sketch.writeTo(out);
+            this.topK.writeTo(out);
+        }
+        Files.move(temp, this.checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
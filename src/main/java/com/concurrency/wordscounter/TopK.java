@@ -0,0 +1,140 @@
+package com.concurrency.wordscounter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class TopK {
+    /*
+        The k words with the highest counts seen so far.
+
+        A min-heap of k entries, so the weakest candidate is at the root:
+        a word whose new count beats the root replaces it, anything else
+        is ignored. Next to the heap, a map from word to its entry finds a
+        word that's already in the heap, and every entry knows its position
+        in the heap array. Counts only grow, so an updated entry can only
+        move down (away from the root). Either way an update costs O(log k),
+        and memory is k entries, however long the stream runs.
+
+        Lookups use a reusable `ByteWord` probe; only a word that enters
+        the heap is copied.
+     */
+    private static final class Entry {
+        final ByteWord word;
+        long count;
+        int position;
+
+        Entry(ByteWord word, long count) {
+            this.word = word;
+            this.count = count;
+        }
+    }
+
+    private final Entry[] heap;
+    private final Map<ByteWord, Entry> entries;
+    private final ByteWord probe;
+    private int size;
+
+    public TopK(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Expected k > 0, got " + k);
+        }
+        this.heap = new Entry[k];
+        this.entries = new HashMap<>(k * 2);
+        this.probe = new ByteWord();
+    }
+
+    /**
+     * Tells that the word now has (an estimated) {@code count}.
+     */
+    public void offer(byte[] word, int length, long hash, long count) {
+        Entry entry = this.entries.get(this.probe.set(word, length, hash));
+        if (entry != null) {
+            entry.count = count;
+            siftDown(entry.position);
+        } else if (this.size < this.heap.length) {
+            entry = new Entry(this.probe.copy(), count);
+            this.entries.put(entry.word, entry);
+            place(entry, this.size++);
+            siftUp(entry.position);
+        } else if (count > this.heap[0].count) {
+            this.entries.remove(this.heap[0].word);
+            entry = new Entry(this.probe.copy(), count);
+            this.entries.put(entry.word, entry);
+            place(entry, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * The current top words, most frequent first.
+     */
+    public List<Map.Entry<String, Long>> top() {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            top.add(Map.entry(this.heap[i].word.toString(), this.heap[i].count));
+        }
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return top;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(this.size);
+        for (int i = 0; i < this.size; i++) {
+            byte[] bytes = this.heap[i].word.toBytes();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeLong(this.heap[i].count);
+        }
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            offer(bytes, bytes.length, WordHash.hash(bytes, 0, bytes.length), in.readLong());
+        }
+    }
+
+    private void place(Entry entry, int position) {
+        this.heap[position] = entry;
+        entry.position = position;
+    }
+
+    private void siftUp(int position) {
+        Entry entry = this.heap[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (this.heap[parent].count <= entry.count) {
+                break;
+            }
+            place(this.heap[parent], position);
+            position = parent;
+        }
+        place(entry, position);
+    }
+
+    private void siftDown(int position) {
+        Entry entry = this.heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && this.heap[child + 1].count < this.heap[child].count) {
+                child++;
+            }
+            if (entry.count <= this.heap[child].count) {
+                break;
+            }
+            place(this.heap[child], position);
+            position = child;
+        }
+        place(entry, position);
+    }
+}
@@ -0,0 +1,162 @@
+package com.concurrency.wordscounter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+class WordCountTable {
+    /*
+        A word -> long count table that many threads can increment at once,
+        without locks and without boxing.
+
+        A `HashMap<ByteWord, Integer>` costs per counted word a lookup
+        through a node, the key object and its byte[], and an Integer per
+        increment past 127 (garbage, and with a million distinct words the
+        nodes are spread all over the heap). Here everything lives in two
+        flat arrays allocated once:
+            - `slots` holds, per slot, the 64-bit word hash and right next
+              to it the count: [hash0, count0, hash1, count1, ...]. A probe
+              that finds its word gets the count from the same cache line.
+            - `words` holds the word's bytes, only looked at to confirm a
+              hash match (and to list the words at the end).
+        Collisions are resolved by linear probing, so a miss walks along
+        neighbouring slots, which are mostly in cache already.
+
+        Concurrency, per slot:
+            - claiming: an empty slot (hash 0) is claimed with a CAS of its
+              hash from 0. Losing the race is fine: the slot now holds some
+              other thread's hash, maybe even the same word.
+            - the word's bytes are published right after. Somebody who finds
+              a matching hash but no bytes yet spins the few nanoseconds
+              until they show up, then compares.
+            - counting is an atomic `getAndAdd` on the count next to it.
+        A claimed slot never changes its word, so a found slot stays valid.
+        The hash and count can't share one 64-bit CAS (a 64-bit hash alone
+        fills it), hence the two adjacent longs.
+
+        The capacity is fixed: growing a table concurrently would need every
+        writer to help copy it. Size it with `expectedWords`, e.g. from a
+        `HyperLogLog` estimate; at 3/4 full it refuses new words.
+     */
+    private static final long EMPTY = 0;
+
+    interface WordCount {
+        void accept(byte[] word, long count);
+    }
+
+    private final int capacity;
+    private final int maxWords;
+    private final AtomicLongArray slots;
+    private final AtomicReferenceArray<byte[]> words;
+    private final AtomicInteger size;
+
+    public WordCountTable(int expectedWords) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedWords) * 2 - 1) * 2;
+        if (capacity <= 0 || capacity > 1 << 29) {
+            throw new IllegalArgumentException("Too many expected words: " + expectedWords);
+        }
+        this.capacity = capacity;
+        this.maxWords = capacity / 4 * 3;
+        this.slots = new AtomicLongArray(capacity * 2);
+        this.words = new AtomicReferenceArray<>(capacity);
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Adds {@code delta} to the count of the word, whose hash is
+     * {@code hash}, and returns the new count. The word's bytes are copied
+     * if it's new.
+     */
+    public long add(byte[] word, int length, long hash, long delta) {
+        long key = hash == EMPTY ? 1 : hash;
+        int mask = this.capacity - 1;
+        int slot = (int) key & mask;
+        for (int probes = 0; probes < this.capacity; probes++, slot = (slot + 1) & mask) {
+            long current = this.slots.get(2 * slot);
+            if (current == EMPTY) {
+                if (this.size.get() >= this.maxWords) {
+                    throw new IllegalStateException("Table is full, " + this.size.get()
+                            + " words; create it with more expected words");
+                }
+                if (this.slots.compareAndSet(2 * slot, EMPTY, key)) {
+                    this.words.set(slot, Arrays.copyOf(word, length));
+                    this.size.incrementAndGet();
+                    return this.slots.addAndGet(2 * slot + 1, delta);
+                }
+                current = this.slots.get(2 * slot);
+            }
+            if (current == key && sameWord(slot, word, length)) {
+                return this.slots.addAndGet(2 * slot + 1, delta);
+            }
+        }
+        throw new IllegalStateException("Table is full");
+    }
+
+    public long increment(byte[] word, int length, long hash) {
+        return add(word, length, hash, 1);
+    }
+
+    public long get(byte[] word, int length, long hash) {
+        long key = hash == EMPTY ? 1 : hash;
+        int mask = this.capacity - 1;
+        int slot = (int) key & mask;
+        for (int probes = 0; probes < this.capacity; probes++, slot = (slot + 1) & mask) {
+            long current = this.slots.get(2 * slot);
+            if (current == EMPTY) {
+                return 0;
+            }
+            if (current == key && sameWord(slot, word, length)) {
+                return this.slots.get(2 * slot + 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds all counts of {@code other} to this table. Uses the hashes
+     * stored in {@code other}, so no word is hashed again.
+     */
+    public void mergeFrom(WordCountTable other) {
+        for (int slot = 0; slot < other.capacity; slot++) {
+            long hash = other.slots.get(2 * slot);
+            byte[] word = other.words.get(slot);
+            if (hash != EMPTY && word != null) {
+                add(word, word.length, hash, other.slots.get(2 * slot + 1));
+            }
+        }
+    }
+
+    /**
+     * Calls {@code action} for every word and its count. Weakly
+     * consistent while other threads are still adding.
+     */
+    public void forEach(WordCount action) {
+        for (int slot = 0; slot < this.capacity; slot++) {
+            byte[] word = this.words.get(slot);
+            if (word != null) {
+                action.accept(word, this.slots.get(2 * slot + 1));
+            }
+        }
+    }
+
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Whether {@link #add} refuses new words.
+     */
+    public boolean isFull() {
+        return this.size.get() >= this.maxWords;
+    }
+
+    private boolean sameWord(int slot, byte[] word, int length) {
+        byte[] stored;
+        while ((stored = this.words.get(slot)) == null) {
+            // Claimed, but the claiming thread is still copying the bytes.
+            Thread.onSpinWait();
+        }
+        return Arrays.equals(stored, 0, stored.length, word, 0, length);
+    }
+}
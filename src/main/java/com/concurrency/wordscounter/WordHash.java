@@ -0,0 +1,40 @@
+package com.concurrency.wordscounter;
+
+class WordHash {
+    /*
+        64-bit hash of a word's bytes, shared by every counting mode.
+
+        FNV-1a is computed byte by byte while the tokenizer copies the word
+        anyway, so hashing costs one xor and one multiply per byte and no
+        second pass. FNV alone leaves the high bits poorly mixed for short
+        inputs, and sketches like HyperLogLog take their bucket from the
+        high bits, so the result goes through MurmurHash3's 64-bit finalizer
+        (`fmix64`), which spreads every input bit over all output bits.
+     */
+    static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private WordHash() {
+    }
+
+    static long step(long hash, byte b) {
+        return (hash ^ (b & 0xff)) * PRIME;
+    }
+
+    static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    static long hash(byte[] bytes, int offset, int length) {
+        long hash = SEED;
+        for (int i = offset; i < offset + length; i++) {
+            hash = step(hash, bytes[i]);
+        }
+        return finish(hash);
+    }
+}
@@ -0,0 +1,62 @@
+package com.concurrency.wordscounter;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+class WordTokenizer {
+    /*
+        Splits raw bytes into words without decoding them into Strings.
+
+        A word is a run of ASCII letters and digits, or of any byte >= 0x80:
+        in UTF-8, every byte of a non-ASCII character is >= 0x80, so words
+        like "Müller" stay in one piece without decoding anything. ASCII
+        letters are lower-cased on the way.
+
+        Each word is copied (lower-cased) into a scratch array that is
+        reused for every word, hashed while being copied, and handed to the
+        `WordSink`. The sink must copy what it wants to keep: the scratch
+        array is overwritten by the next word. One tokenizer per thread.
+     */
+    interface WordSink {
+        void onWord(byte[] word, int length, long hash);
+    }
+
+    private byte[] scratch = new byte[64];
+
+    static boolean isWordByte(byte b) {
+        return b < 0 || (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    /**
+     * Tokenizes the bytes from {@code from} (inclusive) to {@code to}
+     * (exclusive) of the buffer and returns the number of words.
+     */
+    long tokenize(ByteBuffer bytes, int from, int to, WordSink sink) {
+        long words = 0;
+        int length = 0;
+        long hash = WordHash.SEED;
+        for (int i = from; i < to; i++) {
+            byte b = bytes.get(i);
+            if (isWordByte(b)) {
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                }
+                if (length == this.scratch.length) {
+                    this.scratch = Arrays.copyOf(this.scratch, length * 2);
+                }
+                this.scratch[length++] = b;
+                hash = WordHash.step(hash, b);
+            } else if (length > 0) {
+                sink.onWord(this.scratch, length, WordHash.finish(hash));
+                words++;
+                length = 0;
+                hash = WordHash.SEED;
+            }
+        }
+        if (length > 0) {
+            sink.onWord(this.scratch, length, WordHash.finish(hash));
+            words++;
+        }
+        return words;
+    }
+}
@@ -1,9 +1,37 @@
 package com.concurrency.wordscounter;
 
+import com.sun.management.OperatingSystemMXBean;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 public class WordsCounter {
     /*
@@ -28,7 +56,50 @@ public class WordsCounter {
         Remember, a thread only can either initialize the latch to some
         value or it can only count downwards. It cannot restore the
         latch's value.
+
+        Counting a big file:
+            The file is cut into one byte range per worker. A cut is moved
+            forward to the next non-word byte, so no word is split between
+            two workers. Each worker maps its range with `FileChannel.map`
+            (at most 1GB at a time, a mapping can't exceed 2GB) and
+            tokenizes the mapped bytes in place: no read() copies, no
+            decoding into Strings. Every worker counts into its own HashMap,
+            so the workers share nothing while they run. Once `doneSignal`
+            opens, the main thread merges the maps.
+
+        Approximate mode (`estimateDistinct`):
+            The exact maps hold every distinct word, so they grow with the
+            vocabulary and, for big corpora, out of memory. Instead each
+            worker can feed the word hashes into a `HyperLogLog` sketch of a
+            few KB, whose size only depends on the requested error. After
+            the latch the sketches are merged register by register.
+
+        Fork/join mode (`countForkJoin`):
+            One chunk per worker is only fast if all chunks take equally
+            long. They don't: a region full of rare words misses the cache
+            on every lookup, one of common words hits it. The job then
+            takes as long as its slowest chunk while the other workers sit
+            idle. A `CountTask` instead splits its byte range in two (at a
+            word boundary) until it's below `FORK_THRESHOLD_BYTES`, forks
+            one half and works on the other. An idle worker steals the
+            oldest, i.e. biggest, forked half of a busy one, so nobody idles
+            while work is left. The partial maps are merged as the recursion
+            unwinds, each merge on the thread that joins, so merging runs in
+            parallel too.
+
+        Shared table (`runShared`):
+            Instead of one HashMap per worker plus a merge, all workers can
+            increment one `WordCountTable`: open addressing over flat arrays,
+            long counts, CAS to claim a slot. No boxing, no node per word, and
+            no merge once the latch opens. Its capacity is fixed, so it's
+            sized up front, e.g. from `estimateDistinct()`.
+
+        Streaming mode: a file that keeps growing is tailed by a
+        `StreamingWordCounter` instead, see there.
      */
+    private static final long MAX_WINDOW_BYTES = 1L << 30;
+    private static final long FORK_THRESHOLD_BYTES = 8L << 20;
+
     private CountDownLatch startSignal;
     private CountDownLatch doneSignal;
 
@@ -53,9 +124,27 @@ public class WordsCounter {
     class ChunkWorker implements Runnable {
         private CountDownLatch startSignal;
         private CountDownLatch doneSignal;
-        public ChunkWorker(CountDownLatch startSignal, CountDownLatch doneSignal) {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final WordTokenizer.WordSink sink;
+        private long words;
+        private long cpuNanos;
+        // Whatever stopped this worker; rethrown by `runWorkers()`.
+        private Throwable failure;
+
+        /**
+         * Hands every word of its range to {@code sink}, which does the
+         * actual counting.
+         */
+        public ChunkWorker(CountDownLatch startSignal, CountDownLatch doneSignal,
+                           FileChannel channel, long start, long end, WordTokenizer.WordSink sink) {
             this.startSignal = startSignal;
             this.doneSignal = doneSignal;
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.sink = sink;
         }
 
         @Override
@@ -63,40 +152,586 @@ public class WordsCounter {
             try {
                 this.startSignal.await(); // Wait for the value of startSignal go to 0
                 System.out.println(Thread.currentThread().getName() + " computing distinct count ...");
-                Thread.sleep(new Random().nextInt(2000));
-
-                this.doneSignal.countDown();
+                ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                this.words = countRange(this.channel, this.start, this.end, this.sink);
+                this.cpuNanos = threads.getCurrentThreadCpuTime() - cpuStart;
             } catch (InterruptedException ex) {
-                ex.printStackTrace();
+                Thread.currentThread().interrupt();
+                this.failure = ex;
+            } catch (Throwable ex) {
+                // Anything else would vanish into the discarded Future.
+                this.failure = ex;
+            } finally {
+                // Also on failure, or the main thread would wait forever.
+                this.doneSignal.countDown();
             }
+        }
+    }
+
+    static class CountTask extends RecursiveTask<Map<ByteWord, Integer>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long start;
+        private final long end;
+
+        CountTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Map<ByteWord, Integer> compute() {
+            try {
+                long middle = this.end - this.start > FORK_THRESHOLD_BYTES
+                        ? nextWordBoundary(this.channel, this.start + (this.end - this.start) / 2)
+                        : this.end;
+                if (middle >= this.end) {
+                    // Small enough (or a single giant word): count it here.
+                    Map<ByteWord, Integer> counts = new HashMap<>();
+                    countRange(this.channel, this.start, this.end, countingInto(counts));
+                    return counts;
+                }
+
+                CountTask left = new CountTask(this.channel, this.start, middle);
+                left.fork();
+                Map<ByteWord, Integer> right = new CountTask(this.channel, middle, this.end).compute();
+                return mergeCounts(left.join(), right);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to count " + this.start + ".." + this.end, ex);
+            }
+        }
+    }
+
+    /**
+     * Counts the words of the file with {@code workerCount} workers and
+     * returns how often each distinct word occurs.
+     */
+    public Map<ByteWord, Integer> runMyLatch(Path file, int workerCount) {
+        List<Map<ByteWord, Integer>> counts = new ArrayList<>();
+        runWorkers(file, workerCount, worker -> {
+            Map<ByteWord, Integer> workerCounts = new HashMap<>();
+            counts.add(workerCounts);
+            return countingInto(workerCounts);
+        });
+
+        Map<ByteWord, Integer> merged = counts.get(0);
+        for (int i = 1; i < counts.size(); i++) {
+            merged = mergeCounts(merged, counts.get(i));
+        }
+        return merged;
+    }
+
+    /**
+     * Same result as {@link #runMyLatch(Path, int)}, but the file is split
+     * recursively and balanced by work stealing over {@code parallelism}
+     * threads. Doesn't use the latches.
+     */
+    public static Map<ByteWord, Integer> countForkJoin(Path file, int parallelism) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            return pool.invoke(new CountTask(channel, 0, channel.size()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 
+    /**
+     * Estimates the number of distinct words of the file with
+     * {@code workerCount} workers, within about {@code relativeError} of
+     * the exact count. Needs a few KB per worker, whatever the file.
+     */
+    public long estimateDistinct(Path file, int workerCount, double relativeError) {
+        HyperLogLog[] sketches = new HyperLogLog[workerCount];
+        runWorkers(file, workerCount, worker -> {
+            HyperLogLog sketch = new HyperLogLog(relativeError);
+            sketches[worker] = sketch;
+            return (word, length, hash) -> sketch.add(hash);
+        });
+
+        for (int i = 1; i < workerCount; i++) {
+            sketches[0].merge(sketches[i]);
         }
+        return sketches[0].estimate();
     }
 
-    public void runMyLatch(int workerCount) {
-        try (ExecutorService executorService = Executors.newFixedThreadPool(workerCount * 2)) {
+    /**
+     * Counts the words of the file with {@code workerCount} workers that
+     * all increment the same lock-free table, so there's nothing to merge
+     * afterwards. The table holds {@code expectedWords} distinct words; a
+     * `HyperLogLog` estimate is a good way to size it.
+     *
+     * @throws IllegalStateException if the file has more distinct words
+     *         than the table can hold; the partly filled table is dropped
+     */
+    public WordCountTable runShared(Path file, int workerCount, int expectedWords) {
+        WordCountTable table = new WordCountTable(expectedWords);
+        try {
+            runWorkers(file, workerCount, worker -> table::increment);
+        } catch (IllegalStateException ex) {
+            if (table.isFull()) {
+                throw new IllegalStateException(file + " has more distinct words than the "
+                        + expectedWords + " expected", ex);
+            }
+            throw ex;
+        }
+        return table;
+    }
+
+    private ChunkWorker[] runWorkers(Path file, int workerCount, IntFunction<WordTokenizer.WordSink> sinks) {
+        ChunkWorker[] workers = new ChunkWorker[workerCount];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             ExecutorService executorService = Executors.newFixedThreadPool(workerCount * 2)) {
+            long[] boundaries = splitAtWordBoundaries(channel, workerCount);
             for (int i = 0; i < workerCount; i++) {
-                Thread workerThread = new Thread(new ChunkWorker(
+                workers[i] = new ChunkWorker(
                         this.startSignal,
-                        this.doneSignal));
-                executorService.submit(workerThread);
+                        this.doneSignal,
+                        channel, boundaries[i], boundaries[i + 1],
+                        sinks.apply(i));
+                executorService.submit(workers[i]);
             }
 
             this.giveStartSignal();
             this.awaitCompletion(); // The caller thread (here, Main thread) will wait for
             // completion of the worker threads.
             System.out.println("Done with all the workers :) Bye.");
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        // A failed worker still counted down, so the counts may be partial.
+        for (ChunkWorker worker : workers) {
+            if (worker.failure instanceof IOException ex) {
+                throw new UncheckedIOException("Failed to count " + file, ex);
+            }
+            if (worker.failure instanceof RuntimeException ex) {
+                throw ex;
+            }
+            if (worker.failure instanceof Error error) {
+                throw error;
+            }
+            if (worker.failure != null) {
+                throw new RuntimeException("Failed to count " + file, worker.failure);
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Cuts the file into {@code parts} ranges, returned as parts + 1
+     * boundaries. Each inner boundary is moved forward until it's right
+     * after a non-word byte, so that no word straddles two ranges.
+     */
+    static long[] splitAtWordBoundaries(FileChannel channel, int parts) throws IOException {
+        long size = channel.size();
+        long[] boundaries = new long[parts + 1];
+        for (int i = 1; i < parts; i++) {
+            boundaries[i] = nextWordBoundary(channel, Math.max(boundaries[i - 1], size / parts * i));
+        }
+        boundaries[parts] = size;
+        return boundaries;
+    }
+
+    /**
+     * The first position at or after {@code position} that doesn't cut a
+     * word in two, i.e. the start or end of the file or right after a
+     * non-word byte.
+     */
+    static long nextWordBoundary(FileChannel channel, long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position > 0 && position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position - 1);
+            int skip = 0;
+            while (skip < read && WordTokenizer.isWordByte(buffer.get(skip))) {
+                skip++;
+            }
+            position += skip;
+            if (skip < read) {
+                break;
+            }
+        }
+        return Math.min(position, size);
+    }
+
+    /**
+     * Tokenizes the bytes from {@code start} to {@code end} into the sink,
+     * mapping at most `MAX_WINDOW_BYTES` at a time. Returns the number of
+     * words.
+     */
+    static long countRange(FileChannel channel, long start, long end, WordTokenizer.WordSink sink) throws IOException {
+        WordTokenizer tokenizer = new WordTokenizer();
+        long words = 0;
+        long position = start;
+        while (position < end) {
+            long windowEnd = Math.min(end, position + MAX_WINDOW_BYTES);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowEnd - position);
+            int limit = windowEnd < end ? lastWordEnd(window) : window.limit();
+
+            words += tokenizer.tokenize(window, 0, limit, sink);
+            position += limit;
+        }
+        return words;
+    }
+
+    static WordTokenizer.WordSink countingInto(Map<ByteWord, Integer> counts) {
+        ByteWord probe = new ByteWord();
+        return (word, length, hash) -> {
+            // `put` with the probe is fine when the word is already there:
+            // HashMap keeps the key it has and only replaces the value.
+            Integer count = counts.get(probe.set(word, length, hash));
+            if (count == null) {
+                counts.put(probe.copy(), 1);
+            } else {
+                counts.put(probe, count + 1);
+            }
+        };
+    }
+
+    /**
+     * Adds the smaller map into the bigger one, that's the fewest inserts,
+     * and returns the bigger one.
+     */
+    static Map<ByteWord, Integer> mergeCounts(Map<ByteWord, Integer> a, Map<ByteWord, Integer> b) {
+        Map<ByteWord, Integer> into = a.size() >= b.size() ? a : b;
+        Map<ByteWord, Integer> from = into == a ? b : a;
+        for (Map.Entry<ByteWord, Integer> entry : from.entrySet()) {
+            into.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+        return into;
+    }
+
+    static int lastWordEnd(ByteBuffer window) {
+        // Cuts the window after its last non-word byte; the word that runs
+        // past the window is counted with the next one.
+        int limit = window.limit();
+        while (limit > 0 && WordTokenizer.isWordByte(window.get(limit - 1))) {
+            limit--;
+        }
+        return limit > 0 ? limit : window.limit();
+    }
+
+    /**
+     * Writes a file of random words with a Zipfian frequency: a few words
+     * are very common, most are rare.
+     */
+    static void createSampleFile(Path file, long bytes, int vocabularySize) throws IOException {
+        Random random = new Random(42);
+        byte[][] vocabulary = new byte[vocabularySize][];
+        for (int i = 0; i < vocabularySize; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt(10);
+            for (int c = 0; c < length; c++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = (word + (i % 20 == 0 ? "\n" : " ")).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            long written = 0;
+            while (written < bytes) {
+                // Log-uniform rank, i.e. frequency ~ 1 / rank, like in real
+                // text.
+                byte[] word = vocabulary[(int) Math.pow(vocabularySize, random.nextDouble()) - 1];
+                out.write(word);
+                written += word.length;
+            }
         }
     }
 
     private static void test1() {
-        int workerCount = 5;
-        WordsCounter wordsCounter = new WordsCounter(workerCount);
-        wordsCounter.runMyLatch(workerCount);
+        // Exact distinct words of a 256MB file, with 1 to 2x cores workers.
+        try {
+            Path file = Files.createTempFile("words", ".txt");
+            createSampleFile(file, 256L << 20, 1_000_000);
+            long size = Files.size(file);
+            int cores = Runtime.getRuntime().availableProcessors();
+
+            for (int workerCount = 1; workerCount <= Math.max(4, cores * 2); workerCount *= 2) {
+                long start = System.nanoTime();
+                WordsCounter wordsCounter = new WordsCounter(workerCount);
+                Map<ByteWord, Integer> counts = wordsCounter.runMyLatch(file, workerCount);
+                long nanos = System.nanoTime() - start;
+                long total = 0;
+                for (int count : counts.values()) {
+                    total += count;
+                }
+                System.out.printf("workers = %2d: %,d distinct of %,d words in %,d ms, %,.0f MB/s%n",
+                        workerCount, counts.size(), total, nanos / 1_000_000,
+                        size / 1e6 / (nanos / 1e9));
+            }
+            Files.delete(file);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
         System.out.println("Main thread completes ...");
     }
 
+    private static void test2() {
+        // Exact vs. HyperLogLog on the same file: error, time and memory.
+        int workerCount = Math.max(2, Runtime.getRuntime().availableProcessors());
+        try {
+            Path file = Files.createTempFile("words", ".txt");
+            createSampleFile(file, 128L << 20, 1_000_000);
+            long size = Files.size(file);
+
+            long start = System.nanoTime();
+            long exact = new WordsCounter(workerCount).runMyLatch(file, workerCount).size();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("exact:        %,d distinct in %,d ms, %,.0f MB/s%n",
+                    exact, nanos / 1_000_000, size / 1e6 / (nanos / 1e9));
+
+            for (double relativeError : new double[] {0.05, 0.02, 0.01, 0.005}) {
+                start = System.nanoTime();
+                long estimate = new WordsCounter(workerCount).estimateDistinct(file, workerCount, relativeError);
+                nanos = System.nanoTime() - start;
+                System.out.printf("error %.1f%%: %,d distinct (%+.2f%%) in %,d ms, %,.0f MB/s, %,d bytes per worker%n",
+                        relativeError * 100, estimate, (estimate - exact) * 100.0 / exact,
+                        nanos / 1_000_000, size / 1e6 / (nanos / 1e9),
+                        new HyperLogLog(relativeError).sizeInBytes());
+            }
+            Files.delete(file);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void test3() {
+        // A skewed file: the first 1/8 is drawn from a huge vocabulary
+        // (cache misses on every lookup), the rest from a tiny one. With one
+        // chunk per worker, the first worker gets most of the work, while
+        // fork/join tasks are small enough to be spread evenly.
+        //
+        // The wall times are measured. With fewer cores than workers they
+        // can't show the difference, so a projection for `workerCount` cores
+        // is printed separately: the busiest worker's CPU time for the latch,
+        // the CPU time of the whole run / cores for fork/join (which includes
+        // some GC and JIT time, so it's on the high side).
+        int workerCount = 4;
+        int cores = Runtime.getRuntime().availableProcessors();
+        OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        try {
+            Path file = Files.createTempFile("words", ".txt");
+            Path tail = Files.createTempFile("words", ".txt");
+            createSampleFile(file, 32L << 20, 1_000_000);
+            createSampleFile(tail, 224L << 20, 1_000);
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+                Files.copy(tail, out);
+            }
+            Files.delete(tail);
+
+            long start = System.nanoTime();
+            WordsCounter wordsCounter = new WordsCounter(workerCount);
+            ChunkWorker[] workers = wordsCounter.runWorkers(file, workerCount,
+                    worker -> countingInto(new HashMap<>()));
+            long latchNanos = System.nanoTime() - start;
+            long busiest = 0;
+            long total = 0;
+            for (ChunkWorker worker : workers) {
+                busiest = Math.max(busiest, worker.cpuNanos);
+                total += worker.cpuNanos;
+            }
+
+            long forkJoinNanos;
+            long forkJoinCpuNanos;
+            Map<ByteWord, Integer> counts;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                 ForkJoinPool pool = new ForkJoinPool(workerCount)) {
+                long cpuStart = os.getProcessCpuTime();
+                start = System.nanoTime();
+                counts = pool.invoke(new CountTask(channel, 0, channel.size()));
+                forkJoinNanos = System.nanoTime() - start;
+                forkJoinCpuNanos = os.getProcessCpuTime() - cpuStart;
+            }
+
+            System.out.printf("measured on %d core(s), %d workers:%n", cores, workerCount);
+            System.out.printf("  latch:     wall %,d ms, worker CPU %,d ms total, busiest worker %,d ms%n",
+                    latchNanos / 1_000_000, total / 1_000_000, busiest / 1_000_000);
+            System.out.printf("  fork/join: wall %,d ms, process CPU %,d ms, %,d distinct%n",
+                    forkJoinNanos / 1_000_000, forkJoinCpuNanos / 1_000_000, counts.size());
+            System.out.printf("projected (not measured) on %d cores: latch ~%,d ms, fork/join ~%,d ms%n",
+                    workerCount, busiest / 1_000_000, forkJoinCpuNanos / workerCount / 1_000_000);
+            Files.delete(file);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void test4() {
+        // A file appended to in slices (cut anywhere, also inside words)
+        // while a StreamingWordCounter tails it. Half way through the
+        // counter is closed and a new one resumes from the checkpoint.
+        try {
+            Path directory = Files.createTempDirectory("words");
+            Path source = directory.resolve("source.txt");
+            Path file = directory.resolve("stream.txt");
+            Path checkpoint = directory.resolve("stream.checkpoint");
+            createSampleFile(source, 64L << 20, 100_000);
+            byte[] bytes = Files.readAllBytes(source);
+            Files.createFile(file);
+
+            int slices = 64;
+            int sliceBytes = bytes.length / slices + 1;
+            for (int round = 0; round < 2; round++) {
+                try (StreamingWordCounter counter = new StreamingWordCounter(file, checkpoint, 10, 1e-5, 0.01)) {
+                    counter.start(5, TimeUnit.MILLISECONDS);
+                    for (int slice = round * slices / 2; slice < (round + 1) * slices / 2; slice++) {
+                        int from = Math.min(bytes.length, slice * sliceBytes);
+                        int to = Math.min(bytes.length, from + sliceBytes);
+                        Files.write(file, Arrays.copyOfRange(bytes, from, to), StandardOpenOption.APPEND);
+                        Thread.sleep(20);
+                    }
+                    while (counter.offset() < bytes.length * (round + 1L) / 2 - sliceBytes) {
+                        Thread.sleep(10);
+                    }
+                    System.out.printf("round %d: offset %,d, %,d words, top 3 %s%n",
+                            round, counter.offset(), counter.totalWords(), counter.heavyHitters().subList(0, 3));
+                }
+            }
+
+            StreamingWordCounter resumed = new StreamingWordCounter(file, checkpoint, 10, 1e-5, 0.01);
+            resumed.poll();
+            Map<ByteWord, Integer> exact = countForkJoin(file, 1);
+            long exactTotal = 0;
+            for (int count : exact.values()) {
+                exactTotal += count;
+            }
+            System.out.printf("streamed %,d words, exact %,d words%n", resumed.totalWords(), exactTotal);
+            for (Map.Entry<String, Long> hitter : resumed.heavyHitters()) {
+                long count = 0;
+                for (Map.Entry<ByteWord, Integer> entry : exact.entrySet()) {
+                    if (entry.getKey().toString().equals(hitter.getKey())) {
+                        count = entry.getValue();
+                    }
+                }
+                System.out.printf("  %-12s estimated %,9d exact %,9d%n", hitter.getKey(), hitter.getValue(), count);
+            }
+
+            // Cost per word, from scratch over the whole file.
+            Files.delete(checkpoint);
+            StreamingWordCounter fresh = new StreamingWordCounter(file, checkpoint, 10, 1e-5, 0.01);
+            long start = System.nanoTime();
+            long words = fresh.poll();
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%,d words in %,d ms, %.0f ns per word, sketch %,d bytes%n",
+                    words, nanos / 1_000_000, (double) nanos / words, new CountMinSketch(1e-5, 0.01).sizeInBytes());
+
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path path : files.toList()) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        } catch (IOException | InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void test5() {
+        // Where the time and the garbage go: per-worker HashMaps + merge, a
+        // shared ConcurrentHashMap, a shared WordCountTable, and per-worker
+        // WordCountTables + bulk merge. Same file, same workers.
+        int workerCount = 4;
+        try {
+            Path file = Files.createTempFile("words", ".txt");
+            createSampleFile(file, 128L << 20, 1_000_000);
+
+            long start = System.nanoTime();
+            int expectedWords = (int) (new WordsCounter(workerCount).estimateDistinct(file, workerCount, 0.02) * 1.1);
+            System.out.printf("%-28s %,6d ms, %,d distinct (estimated)%n", "HyperLogLog sizing",
+                    (System.nanoTime() - start) / 1_000_000, expectedWords);
+
+            List<Map<ByteWord, Integer>> maps = new ArrayList<>();
+            long[] gc = gcCountAndMillis();
+            start = System.nanoTime();
+            new WordsCounter(workerCount).runWorkers(file, workerCount, worker -> {
+                Map<ByteWord, Integer> counts = new HashMap<>();
+                maps.add(counts);
+                return countingInto(counts);
+            });
+            long mergeStart = System.nanoTime();
+            Map<ByteWord, Integer> exact = maps.get(0);
+            for (int i = 1; i < maps.size(); i++) {
+                exact = mergeCounts(exact, maps.get(i));
+            }
+            printCountRun("HashMap per worker + merge", start, mergeStart, gc, exact.size());
+            maps.clear();
+
+            Map<ByteWord, LongAdder> concurrentMap = new ConcurrentHashMap<>();
+            gc = gcCountAndMillis();
+            start = System.nanoTime();
+            new WordsCounter(workerCount).runWorkers(file, workerCount, worker -> {
+                ByteWord probe = new ByteWord();
+                return (word, length, hash) -> {
+                    LongAdder count = concurrentMap.get(probe.set(word, length, hash));
+                    if (count == null) {
+                        count = concurrentMap.computeIfAbsent(probe.copy(), key -> new LongAdder());
+                    }
+                    count.increment();
+                };
+            });
+            printCountRun("shared ConcurrentHashMap", start, System.nanoTime(), gc, concurrentMap.size());
+            concurrentMap.clear();
+
+            gc = gcCountAndMillis();
+            start = System.nanoTime();
+            WordCountTable shared = new WordsCounter(workerCount).runShared(file, workerCount, expectedWords);
+            printCountRun("shared WordCountTable", start, System.nanoTime(), gc, shared.size());
+
+            WordCountTable[] tables = new WordCountTable[workerCount];
+            gc = gcCountAndMillis();
+            start = System.nanoTime();
+            new WordsCounter(workerCount).runWorkers(file, workerCount, worker -> {
+                tables[worker] = new WordCountTable(expectedWords);
+                return tables[worker]::increment;
+            });
+            mergeStart = System.nanoTime();
+            for (int i = 1; i < workerCount; i++) {
+                tables[0].mergeFrom(tables[i]);
+            }
+            printCountRun("WordCountTable per worker", start, mergeStart, gc, tables[0].size());
+
+            // Same counts, word for word.
+            boolean same = shared.size() == exact.size() && tables[0].size() == exact.size();
+            for (Map.Entry<ByteWord, Integer> entry : exact.entrySet()) {
+                byte[] word = entry.getKey().toBytes();
+                long hash = WordHash.hash(word, 0, word.length);
+                same &= shared.get(word, word.length, hash) == entry.getValue()
+                        && tables[0].get(word, word.length, hash) == entry.getValue();
+            }
+            System.out.println("Same counts as HashMap: " + same);
+            Files.delete(file);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static long[] gcCountAndMillis() {
+        long[] gc = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc[0] += collector.getCollectionCount();
+            gc[1] += collector.getCollectionTime();
+        }
+        return gc;
+    }
+
+    private static void printCountRun(String name, long start, long mergeStart, long[] gcBefore, int distinct) {
+        long end = System.nanoTime();
+        long[] gc = gcCountAndMillis();
+        System.out.printf("%-28s %,6d ms (merge %,5d ms), %,d distinct, %,d GCs taking %,d ms%n",
+                name, (end - start) / 1_000_000, (end - mergeStart) / 1_000_000, distinct,
+                gc[0] - gcBefore[0], gc[1] - gcBefore[1]);
+    }
+
     public static void main(String[] args) {
         test1();
+        test2();
+        test3();
+        test4();
+        test5();
     }
 }